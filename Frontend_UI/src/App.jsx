@@ -133,6 +133,19 @@ const App = () => {
     return () => socket.off("file_complete");
   }, []);
 
+  // Preview images while they stream in (the bridge serves the received prefix)
+  useEffect(() => {
+    socket.on("file_partial", ({ filename, available, size, url }) => {
+      if (filename.match(/\.(png|jpg|jpeg|gif)$/i)) {
+        setPreviewUrl(`http://localhost:3000${url}?end=${available}`);
+      }
+
+      setFileInfo({ name: filename, size });
+    });
+
+    return () => socket.off("file_partial");
+  }, []);
+
 
   // --- CONTROLS ---
   const handleReset = () => {
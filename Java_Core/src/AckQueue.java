@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring of cumulative ACKs.
+ *
+ * The ACK listener thread offers (ackSeq, arrival time) without locking and
+ * the send loop drains them between transmissions. If the ring is full the
+ * producer keeps only the highest ACK seen, which is all a cumulative ACK
+ * needs, so ACK bursts never block the listener.
+ */
+public class AckQueue {
+
+    public interface Handler {
+        void onAck(int ackSeq, long arrivalNanos);
+    }
+
+    private static final int NO_ACK = Integer.MIN_VALUE;
+
+    private final int mask;
+    private final int[] seqs;
+    private final long[] arrivals;
+
+    private final AtomicLong head = new AtomicLong(); // next slot to read (consumer only writes)
+    private final AtomicLong tail = new AtomicLong(); // next slot to write (producer only writes)
+
+    // highest ACK dropped because the ring was full
+    private final AtomicInteger overflow = new AtomicInteger(NO_ACK);
+    private volatile long overflowArrival;
+
+    public AckQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // round up to a power of 2
+        this.mask = size - 1;
+        this.seqs = new int[size];
+        this.arrivals = new long[size];
+    }
+
+    // Producer side (ACK listener thread)
+    public void offer(int ackSeq, long arrivalNanos) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            overflowArrival = arrivalNanos;
+            overflow.accumulateAndGet(ackSeq, Math::max);
+            return;
+        }
+
+        int i = (int) t & mask;
+        seqs[i] = ackSeq;
+        arrivals[i] = arrivalNanos;
+        tail.lazySet(t + 1); // publish the slot
+    }
+
+    // Consumer side (send loop); returns the number of ACKs handed to the handler
+    public int drain(Handler handler) {
+        long h = head.get();
+        long t = tail.get();
+        int count = 0;
+
+        for (; h < t; h++, count++) {
+            int i = (int) h & mask;
+            handler.onAck(seqs[i], arrivals[i]);
+        }
+        head.lazySet(h); // free the slots
+
+        int dropped = overflow.getAndSet(NO_ACK);
+        if (dropped != NO_ACK) {
+            handler.onAck(dropped, overflowArrival);
+            count++;
+        }
+
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get() && overflow.get() == NO_ACK;
+    }
+}
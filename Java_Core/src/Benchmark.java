@@ -0,0 +1,388 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless load generator: runs end-to-end Sender → Receiver transfers of a
+ * synthetic payload over loopback with telemetry off, then prints one JSON
+ * line with throughput, goodput, retransmission ratio and completion-time
+ * percentiles (for regression tracking).
+ *
+ * java Benchmark --size=1m --window=64 --chunk=1024 --rbuf=256 --rto-min=200 --sessions=4 --duration=10
+ * --profile=loss=1,delay=5,jitter=1,ack.loss=0.5 --codec=deflate --payload=text
+ *
+ * Profile keys (forward link; prefix "ack." for the ACK direction): loss,
+ * burstEnter, burstExit, burstLoss (%), delay, jitter, reorderGap (ms),
+ * reorder, duplicate, corrupt (%), bandwidth (kbit/s). "--loss=N" is
+ * shorthand for "--profile=loss=N".
+ *
+ * --reuse keeps one pooled Sender and one serving Receiver per session for
+ * all its transfers (SenderPool); without it every transfer starts cold.
+ */
+public class Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parseArgs(args);
+
+        int size = parseIntSize("size", opts.getOrDefault("size", "1m"));
+        int window = Integer.parseInt(opts.getOrDefault("window", "64"));
+        int chunk = parseIntSize("chunk", opts.getOrDefault("chunk", "1024"));
+        int receiveBuffer = Integer.parseInt(opts.getOrDefault("rbuf", "256")); // receiver inbox, packets
+        long rtoMinMs = Long.parseLong(opts.getOrDefault("rto-min", "1000"));
+        int sessions = Integer.parseInt(opts.getOrDefault("sessions", "1"));
+        double duration = Double.parseDouble(opts.getOrDefault("duration", "0")); // 0 = one transfer per session
+        int basePort = Integer.parseInt(opts.getOrDefault("port", "7000"));
+        long seed = Long.parseLong(opts.getOrDefault("seed", "1"));
+        String codecName = opts.getOrDefault("codec", "none");
+        String payloadKind = opts.getOrDefault("payload", "random");
+        boolean verbose = opts.containsKey("verbose");
+        boolean reuse = opts.containsKey("reuse");
+
+        String profile = opts.getOrDefault("profile", "");
+        if (opts.containsKey("loss"))
+            profile = "loss=" + opts.get("loss") + (profile.isEmpty() ? "" : "," + profile);
+
+        ChunkCodec codec = codecName.equals("none") ? null : ChunkCodecs.forName(codecName);
+        if (!codecName.equals("none") && codec == null)
+            throw new IllegalArgumentException("Unknown codec: " + codecName);
+
+        byte[] payload = makePayload(size, payloadKind, seed);
+
+        File outDir = new File(System.getProperty("java.io.tmpdir"), "netviz-bench-" + ProcessHandle.current().pid());
+
+        // telemetry off, chatter off: only the result line goes to stdout
+        Logger.setLevel(Logger.LEVEL_OFF);
+        PrintStream out = System.out;
+        if (!verbose)
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        if (reuse)
+            SenderPool.warmUp();
+
+        Metrics.reset();
+        LatencyHistogram completion = new LatencyHistogram();
+        AtomicInteger transfers = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        long start = System.nanoTime();
+        long deadline = start + (long) (duration * 1e9);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            final int session = i;
+            final String netProfile = profile;
+            Thread t = new Thread(() -> {
+                PooledEndpoint endpoint = null;
+                try {
+                    if (reuse)
+                        endpoint = new PooledEndpoint(basePort + session, window, chunk, receiveBuffer, rtoMinMs,
+                                codec, netProfile, seed + session * 1000L, outDir);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    e.printStackTrace();
+                    return;
+                }
+
+                int n = 0;
+                do {
+                    try {
+                        String name = "bench-" + session + "-" + n + ".bin";
+                        long t0 = System.nanoTime();
+                        boolean ok = (endpoint != null) ? endpoint.transfer(name, payload)
+                                : runTransfer(basePort + session, window, chunk, receiveBuffer, rtoMinMs, codec,
+                                        netProfile, seed + session * 1000L + n, outDir, name, payload);
+                        completion.record((System.nanoTime() - t0) / 1000);
+                        transfers.incrementAndGet();
+                        if (!ok)
+                            failed.incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                    n++;
+                } while (System.nanoTime() < deadline);
+
+                if (endpoint != null)
+                    endpoint.close();
+            }, "bench-session-" + i);
+            threads.add(t);
+            t.start();
+        }
+
+        for (Thread t : threads)
+            t.join();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        outDir.delete();
+        System.setOut(out);
+
+        long sent = Metrics.getPacketsSent();
+        System.out.println(String.format(Locale.ROOT,
+                "{\"benchmark\":\"netviz\",\"reuse\":%b,\"sizeBytes\":%d,\"window\":%d,\"chunk\":%d,\"rbuf\":%d,\"rtoMinMs\":%d,\"sessions\":%d,"
+                        + "\"durationS\":%.1f,\"codec\":\"%s\",\"payload\":\"%s\",\"profile\":\"%s\",\"seed\":%d,"
+                        + "\"transfers\":%d,\"failed\":%d,\"elapsedS\":%.3f,"
+                        + "\"throughputMbps\":%.3f,\"goodputMbps\":%.3f,\"retransmitRatio\":%.4f,"
+                        + "\"completionMs\":{\"mean\":%.1f,\"p50\":%.1f,\"p90\":%.1f,\"p99\":%.1f,\"max\":%.1f},"
+                        + "\"rttUs\":%s}",
+                reuse, size, window, chunk, receiveBuffer, rtoMinMs, sessions, duration, codecName, payloadKind, profile, seed,
+                transfers.get(), failed.get(), elapsed,
+                Metrics.getBytesSent() * 8 / elapsed / 1e6, Metrics.getGoodputBytes() * 8 / elapsed / 1e6,
+                (sent == 0) ? 0.0 : Metrics.getRetransmits() / (double) sent,
+                completion.getMean() / 1000, completion.getPercentile(50) / 1000.0,
+                completion.getPercentile(90) / 1000.0, completion.getPercentile(99) / 1000.0,
+                completion.getMax() / 1000.0, Metrics.getRtt().toJson()));
+    }
+
+    // One Sender → Receiver transfer on its own port; true if the file arrived intact (same bytes)
+    private static boolean runTransfer(int port, int window, int chunk, int receiveBuffer, long rtoMinMs,
+            ChunkCodec codec, String profile, long seed, File outDir, String name, byte[] payload) throws Exception {
+        Receiver receiver = new Receiver(port);
+        receiver.setOutputFolder(outDir);
+        receiver.setReceiveBuffer(receiveBuffer);
+
+        List<File> received = new ArrayList<>();
+        Thread receiverThread = new Thread(() -> {
+            try {
+                received.addAll(receiver.receiveData());
+            } catch (Exception e) {
+                // socket closed
+            }
+        });
+        receiverThread.start();
+
+        Sender sender = new Sender("127.0.0.1", port, window);
+        NetworkEmulator emulator = new NetworkEmulator(seed);
+        try {
+            sender.setChunkSize(chunk);
+            sender.setPacingDelayMs(0);
+            sender.getRttEstimator().setMinRtoMs(rtoMinMs);
+            sender.setCompression(codec);
+
+            applyProfile(emulator, profile);
+            sender.setNetworkEmulator(emulator);
+            receiver.setNetworkEmulator(emulator);
+
+            sender.sendFileBytes(name, payload);
+        } finally {
+            sender.close();
+            receiverThread.join(5000);
+            receiver.stop();
+            emulator.close(); // one per transfer: its delivery thread must not outlive it
+        }
+
+        boolean ok = received.size() == 1 && sameContent(received.get(0), payload);
+        for (File f : received)
+            f.delete();
+        return ok;
+    }
+
+    // One serving Receiver + pooled Sender kept for all transfers of a session (--reuse)
+    private static class PooledEndpoint {
+        final Receiver receiver;
+        final Sender sender;
+        final Thread serveThread;
+        final NetworkEmulator emulator;
+        final File outDir;
+        final int port;
+
+        PooledEndpoint(int port, int window, int chunk, int receiveBuffer, long rtoMinMs, ChunkCodec codec,
+                String profile, long seed, File outDir) throws Exception {
+            this.outDir = outDir;
+            this.port = port;
+            receiver = new Receiver(port);
+            receiver.setOutputFolder(outDir);
+            receiver.setReceiveBuffer(receiveBuffer);
+
+            serveThread = new Thread(() -> {
+                try {
+                    receiver.serve(null);
+                } catch (Exception e) {
+                    // socket closed
+                }
+            });
+            serveThread.start();
+
+            sender = SenderPool.acquire("127.0.0.1", port, window);
+            sender.setChunkSize(chunk);
+            sender.setPacingDelayMs(0);
+            sender.getRttEstimator().setMinRtoMs(rtoMinMs);
+            sender.setCompression(codec);
+
+            emulator = new NetworkEmulator(seed);
+            applyProfile(emulator, profile);
+            sender.setNetworkEmulator(emulator);
+            receiver.setNetworkEmulator(emulator);
+        }
+
+        // The file is complete at the receiver before its FIN is ACKed
+        boolean transfer(String name, byte[] payload) throws Exception {
+            sender.sendFileBytes(name, payload);
+            File received = new File(outDir, name);
+            boolean ok = sameContent(received, payload);
+            received.delete();
+            return ok;
+        }
+
+        void close() {
+            try {
+                SenderPool.close("127.0.0.1", port);
+                receiver.stop();
+                serveThread.join(5000);
+            } catch (Exception e) {
+                // already closed
+            } finally {
+                emulator.close();
+            }
+        }
+    }
+
+    // "loss=1,delay=5,ack.loss=0.5" → emulator settings (see class comment for units)
+    static void applyProfile(NetworkEmulator emulator, String profile) {
+        if (profile == null || profile.isEmpty() || profile.equals("none"))
+            return;
+
+        for (String part : profile.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            if (kv.length != 2)
+                throw new IllegalArgumentException("Bad profile entry: " + part);
+
+            String key = kv[0];
+            NetworkEmulator.Link link = emulator.forward();
+            if (key.startsWith("ack.")) {
+                link = emulator.reverse();
+                key = key.substring(4);
+            }
+            double v = Double.parseDouble(kv[1]);
+
+            switch (key) {
+                case "loss":
+                    link.setLoss(v / 100);
+                    break;
+                case "burstEnter":
+                    link.setBurstLoss(v / 100, link.getBurstExit(), link.getBurstLoss());
+                    break;
+                case "burstExit":
+                    link.setBurstLoss(link.getBurstEnter(), v / 100, link.getBurstLoss());
+                    break;
+                case "burstLoss":
+                    link.setBurstLoss(link.getBurstEnter(), link.getBurstExit(), v / 100);
+                    break;
+                case "delay":
+                    link.setDelay((int) v, link.getJitterMs());
+                    break;
+                case "jitter":
+                    link.setDelay(link.getDelayMs(), (int) v);
+                    break;
+                case "reorder":
+                    link.setReorder(v / 100, link.getReorderGapMs());
+                    break;
+                case "reorderGap":
+                    link.setReorder(link.getReorder(), (int) v);
+                    break;
+                case "duplicate":
+                    link.setDuplicate(v / 100);
+                    break;
+                case "corrupt":
+                    link.setCorrupt(v / 100);
+                    break;
+                case "bandwidth":
+                    link.setBandwidth((long) (v * 1000));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown profile key: " + kv[0]);
+            }
+        }
+    }
+
+    // random = incompressible, text = CSV-like log lines
+    private static byte[] makePayload(int size, String kind, long seed) {
+        byte[] data = new byte[size];
+        Random random = new Random(seed);
+
+        if (kind.equals("random")) {
+            random.nextBytes(data);
+            return data;
+        }
+        if (!kind.equals("text"))
+            throw new IllegalArgumentException("Unknown payload kind: " + kind);
+
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; sb.length() < size; line++) {
+            sb.append(line).append(",2025-01-01T00:").append(line % 60).append(":00,INFO,request ok,")
+                    .append(random.nextInt(1000)).append('\n');
+        }
+        byte[] text = sb.toString().getBytes();
+        System.arraycopy(text, 0, data, 0, size);
+        return data;
+    }
+
+    // 512, 64k, 10m
+    private static long parseSize(String s) {
+        s = s.trim().toLowerCase(Locale.ROOT);
+        long mult = 1;
+        if (s.endsWith("k")) {
+            mult = 1024;
+        } else if (s.endsWith("m")) {
+            mult = 1024 * 1024;
+        } else if (s.endsWith("g")) {
+            mult = 1024L * 1024 * 1024;
+        }
+        if (mult != 1)
+            s = s.substring(0, s.length() - 1);
+        return (long) (Double.parseDouble(s) * mult);
+    }
+
+    // A size that must fit one byte[] (the payload is held in memory)
+    private static int parseIntSize(String option, String s) {
+        long value = parseSize(s);
+        if (value < 0 || value > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("--" + option + "=" + s + " must be at least 0 and below 2g");
+        return (int) value;
+    }
+
+    // Received file holds exactly payload (a length check alone passes corrupted bytes)
+    private static boolean sameContent(File file, byte[] payload) {
+        if (file.length() != payload.length)
+            return false;
+
+        byte[] buf = new byte[64 * 1024];
+        int offset = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (offset + n > payload.length || !Arrays.equals(buf, 0, n, payload, offset, offset + n))
+                    return false;
+                offset += n;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return offset == payload.length;
+    }
+
+    // --key=value / --flag
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                opts.put(arg.substring(2), "true");
+            else
+                opts.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return opts;
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Pluggable per-chunk compression codec.
+ *
+ * The sender offers a codec id in the TYPE_METADATA packet and the receiver
+ * answers with the id it accepted in the metadata ACK. Ids are one byte on
+ * the wire; 0 is reserved for "stored" (no compression). Implementations are
+ * looked up through ChunkCodecs.
+ */
+public interface ChunkCodec {
+
+    byte ID_NONE = 0; // chunk stored as-is
+    byte ID_DEFLATE = 1; // java.util.zip Deflate
+
+    byte id();
+
+    String name();
+
+    // Returns the encoded chunk (may be larger than the input for incompressible data)
+    byte[] compress(byte[] data);
+
+    // Decodes a chunk that was produced by compress(); originalLength is the raw size
+    byte[] decompress(byte[] data, int originalLength);
+}
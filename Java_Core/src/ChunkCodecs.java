@@ -0,0 +1,38 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Registry of known chunk codecs, keyed by wire id
+public class ChunkCodecs {
+
+    private static final Map<Byte, ChunkCodec> codecs = new LinkedHashMap<>();
+
+    static {
+        register(new DeflateChunkCodec());
+    }
+
+    public static synchronized void register(ChunkCodec codec) {
+        if (codec.id() == ChunkCodec.ID_NONE)
+            throw new IllegalArgumentException("Codec id 0 is reserved for stored chunks");
+        codecs.put(codec.id(), codec);
+    }
+
+    // Returns null if this side does not support the codec
+    public static synchronized ChunkCodec forId(byte id) {
+        return codecs.get(id);
+    }
+
+    public static synchronized List<ChunkCodec> all() {
+        return new ArrayList<>(codecs.values());
+    }
+
+    // Lookup by name ("deflate"), case-insensitive
+    public static synchronized ChunkCodec forName(String name) {
+        for (ChunkCodec codec : codecs.values()) {
+            if (codec.name().equalsIgnoreCase(name))
+                return codec;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Sender-side chunk framing for a negotiated codec, with an adaptive bypass
+ * for incompressible data (JPEG, PDF, archives ...).
+ *
+ * Frame layout when a codec was offered in the metadata:
+ * stored → [0][raw bytes]
+ * encoded → [codecId(1)][originalLen(2)][encoded bytes]
+ *
+ * Each frame names its own codec, so the sender can switch between stored
+ * and encoded chunks at any time (before the receiver accepts the offer,
+ * or while the data is not compressing).
+ */
+public class ChunkCompressor {
+
+    // a chunk must shrink by at least 1/8 to be worth the receiver's inflate
+    private static final int MIN_SAVING_SHIFT = 3;
+
+    // after this many misses in a row, stop trying for a while
+    private static final int MISS_LIMIT = 4;
+    private static final int MAX_BACKOFF = 64;
+
+    private final ChunkCodec codec;
+    private volatile boolean accepted = false; // set once the receiver ACKs the offer
+
+    private int misses = 0; // consecutive chunks that did not compress
+    private int backoff = 0; // current skip length after MISS_LIMIT misses
+    private int skipRemaining = 0; // chunks left to send stored without trying
+
+    // stats
+    private long originalBytes = 0;
+    private long wireBytes = 0;
+    private int encodedChunks = 0;
+    private int storedChunks = 0;
+
+    public ChunkCompressor(ChunkCodec codec) {
+        this.codec = codec;
+    }
+
+    public ChunkCodec getCodec() {
+        return codec;
+    }
+
+    // Receiver answered the metadata offer with our codec id
+    public void setAccepted(boolean accepted) {
+        this.accepted = accepted;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    // Wrap a raw chunk into a frame (encoded only if it pays off)
+    public byte[] encode(byte[] raw) {
+        originalBytes += raw.length;
+
+        byte[] encoded = null;
+        if (accepted && raw.length > 0 && shouldTry())
+            encoded = codec.compress(raw);
+
+        byte[] frame;
+        if (encoded != null && encoded.length + 3 <= raw.length - (raw.length >> MIN_SAVING_SHIFT)) {
+            frame = new byte[3 + encoded.length];
+            frame[0] = codec.id();
+            frame[1] = (byte) (raw.length >> 8);
+            frame[2] = (byte) raw.length;
+            System.arraycopy(encoded, 0, frame, 3, encoded.length);
+
+            misses = 0;
+            backoff = 0;
+            encodedChunks++;
+        } else {
+            frame = new byte[1 + raw.length];
+            frame[0] = ChunkCodec.ID_NONE;
+            System.arraycopy(raw, 0, frame, 1, raw.length);
+
+            if (encoded != null)
+                recordMiss();
+            storedChunks++;
+        }
+
+        wireBytes += frame.length;
+        return frame;
+    }
+
+    private boolean shouldTry() {
+        if (skipRemaining > 0) {
+            skipRemaining--;
+            return false;
+        }
+        return true;
+    }
+
+    private void recordMiss() {
+        misses++;
+        if (misses >= MISS_LIMIT) {
+            backoff = (backoff == 0) ? MISS_LIMIT : Math.min(backoff * 2, MAX_BACKOFF);
+            skipRemaining = backoff;
+            misses = 0;
+        }
+    }
+
+    // Unwrap a frame on the receiver side
+    public static byte[] decode(byte[] frame) {
+        if (frame.length == 0)
+            throw new IllegalArgumentException("Empty chunk frame");
+
+        byte id = frame[0];
+        if (id == ChunkCodec.ID_NONE)
+            return java.util.Arrays.copyOfRange(frame, 1, frame.length);
+
+        ChunkCodec codec = ChunkCodecs.forId(id);
+        if (codec == null || frame.length < 3)
+            throw new IllegalArgumentException("Unsupported chunk codec: " + id);
+
+        int originalLength = ((frame[1] & 0xFF) << 8) | (frame[2] & 0xFF);
+        byte[] body = java.util.Arrays.copyOfRange(frame, 3, frame.length);
+        return codec.decompress(body, originalLength);
+    }
+
+    public long getOriginalBytes() {
+        return originalBytes;
+    }
+
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    public int getEncodedChunks() {
+        return encodedChunks;
+    }
+
+    public int getStoredChunks() {
+        return storedChunks;
+    }
+
+    public void resetStats() {
+        originalBytes = 0;
+        wireBytes = 0;
+        encodedChunks = 0;
+        storedChunks = 0;
+        misses = 0;
+        backoff = 0;
+        skipRemaining = 0;
+    }
+}
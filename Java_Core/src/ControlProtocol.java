@@ -0,0 +1,103 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Binary control frames (UI/Node.js or scripts → WindowControlListener).
+ *
+ * [magic "NV"(2)][version(1)][opcode(1)][sessionId(4)][count(1)]
+ * then count × [key(1)][value(8)], big-endian, values are int64.
+ *
+ * sessionId 0 addresses every Sender in the process. Probabilities are in
+ * parts per million, times in ms, bandwidth in bit/s. Link keys address the
+ * forward (data) link; OR them with REVERSE for the ACK link.
+ *
+ * The accessors read straight from the datagram buffer, so parsing a frame
+ * allocates nothing.
+ */
+public class ControlProtocol {
+
+    public static final byte MAGIC_0 = 'N';
+    public static final byte MAGIC_1 = 'V';
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_BYTES = 9;
+    public static final int ENTRY_BYTES = 9;
+
+    // opcodes
+    public static final int OP_SET = 1; // apply every key/value
+    public static final int OP_GET_STATS = 2; // reply with a METRICS snapshot
+
+    // session keys
+    public static final int KEY_WINDOW = 1; // packets
+    public static final int KEY_PACING_MS = 2; // pause between data packets
+    public static final int KEY_RTO_MIN_MS = 3;
+    public static final int KEY_RTO_MAX_MS = 4;
+    public static final int KEY_CHUNK_SIZE = 5; // bytes, from the next file on
+    public static final int KEY_TELEMETRY = 6; // Logger level (process-wide)
+
+    // emulator keys
+    public static final int KEY_EMU_SEED = 16;
+    public static final int KEY_LINK_LOSS = 32; // ppm
+    public static final int KEY_LINK_BURST_ENTER = 33; // ppm
+    public static final int KEY_LINK_BURST_EXIT = 34; // ppm
+    public static final int KEY_LINK_BURST_LOSS = 35; // ppm
+    public static final int KEY_LINK_DELAY_MS = 36;
+    public static final int KEY_LINK_JITTER_MS = 37;
+    public static final int KEY_LINK_REORDER = 38; // ppm
+    public static final int KEY_LINK_REORDER_GAP_MS = 39;
+    public static final int KEY_LINK_DUPLICATE = 40; // ppm
+    public static final int KEY_LINK_CORRUPT = 41; // ppm
+    public static final int KEY_LINK_BANDWIDTH = 42; // bit/s
+    public static final int REVERSE = 0x40; // link key | REVERSE = ACK direction
+
+    public static final double PPM = 1_000_000.0;
+
+    // Starts with the magic (anything else is treated as legacy JSON)
+    public static boolean isFrame(byte[] buf, int len) {
+        return len >= 2 && buf[0] == MAGIC_0 && buf[1] == MAGIC_1;
+    }
+
+    // Known version and the entries fit in the datagram
+    public static boolean isValid(byte[] buf, int len) {
+        return len >= HEADER_BYTES && buf[2] == VERSION && len >= HEADER_BYTES + count(buf) * ENTRY_BYTES;
+    }
+
+    public static int version(byte[] buf) {
+        return buf[2] & 0xFF;
+    }
+
+    public static int opcode(byte[] buf) {
+        return buf[3] & 0xFF;
+    }
+
+    public static int sessionId(byte[] buf) {
+        return ((buf[4] & 0xFF) << 24) | ((buf[5] & 0xFF) << 16) | ((buf[6] & 0xFF) << 8) | (buf[7] & 0xFF);
+    }
+
+    public static int count(byte[] buf) {
+        return buf[8] & 0xFF;
+    }
+
+    public static int key(byte[] buf, int i) {
+        return buf[HEADER_BYTES + i * ENTRY_BYTES] & 0xFF;
+    }
+
+    public static long value(byte[] buf, int i) {
+        int off = HEADER_BYTES + i * ENTRY_BYTES + 1;
+        long v = 0;
+        for (int b = 0; b < 8; b++)
+            v = (v << 8) | (buf[off + b] & 0xFF);
+        return v;
+    }
+
+    // Build a frame (for Java-side tools; Node.js builds the same bytes in server.js)
+    public static byte[] encode(int opcode, int sessionId, int[] keys, long[] values) {
+        if (keys.length != values.length || keys.length > 255)
+            throw new IllegalArgumentException("keys and values must match (at most 255 entries)");
+
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_BYTES + keys.length * ENTRY_BYTES);
+        bb.put(MAGIC_0).put(MAGIC_1).put(VERSION).put((byte) opcode).putInt(sessionId).put((byte) keys.length);
+        for (int i = 0; i < keys.length; i++)
+            bb.put((byte) keys[i]).putLong(values[i]);
+        return bb.array();
+    }
+}
@@ -6,6 +6,9 @@ public class CustomPacket {
     public static final byte TYPE_METADATA = 1; // metadata packet
     public static final byte TYPE_ACK = 2; // ack packet
     public static final byte TYPE_FIN = 3; // fin packet
+    public static final byte TYPE_RESUME = 4; // receiver → sender: chunks already on disk
+    public static final byte TYPE_PROBE = 5; // sender → receiver: zero-window probe, answered with an ACK
+    public static final byte TYPE_SYN = 6; // session start (seq = first seq), echoed back with the receive window
 
     public byte type; // to identify packet type
     public int sequenceNumber; // to identify packet order
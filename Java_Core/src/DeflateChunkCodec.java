@@ -0,0 +1,76 @@
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Deflate codec from the JDK; one Deflater/Inflater is kept per thread and reset per chunk
+public class DeflateChunkCodec implements ChunkCodec {
+
+    private final int level;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateChunkCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateChunkCodec(int level) {
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+    }
+
+    @Override
+    public byte id() {
+        return ID_DEFLATE;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        // worst case for raw deflate is a few bytes per 16 KB block over the input
+        byte[] out = new byte[data.length + 64];
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == out.length)
+                out = java.util.Arrays.copyOf(out, out.length * 2);
+            len += deflater.deflate(out, len, out.length - len);
+        }
+
+        return java.util.Arrays.copyOf(out, len);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int originalLength) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+
+        byte[] out = new byte[originalLength];
+        try {
+            int len = 0;
+            while (len < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(out, len, originalLength - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                len += n;
+            }
+
+            if (len != originalLength)
+                throw new IllegalArgumentException("Deflate chunk size mismatch: " + len + " != " + originalLength);
+
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt deflate chunk: " + e.getMessage());
+        }
+
+        return out;
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * A file being reassembled by the Receiver.
+ *
+ * Chunks are written straight into "<name>.part" at chunk * chunkSize and
+ * recorded in a TransferJournal ("<name>.part.journal"), so a transfer that
+ * dies partway can be resumed. finish() renames the partial file to its
+ * final name and drops the journal.
+ */
+public class IncomingFile {
+
+    private final String name;
+    private final long fileSize;
+    private final int chunkSize;
+    private final int totalChunks;
+
+    private final File partFile;
+    private final File finalFile;
+    private final RandomAccessFile out;
+    private final TransferJournal journal;
+
+    private final int resumedChunks; // chunks already on disk when opened
+    private final long resumedBytes;
+    private long receivedBytes = 0;
+    private int contiguous = 0; // chunks [0, contiguous) are all on disk
+    private boolean finished = false;
+
+    public IncomingFile(File folder, String name, long fileSize, int chunkSize, long fileId) throws IOException {
+        if (chunkSize < 1 || fileSize < 0 || (fileSize + chunkSize - 1) / chunkSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bad file geometry: " + fileSize + " bytes in " + chunkSize
+                    + "-byte chunks");
+        if (!folder.exists())
+            folder.mkdirs();
+
+        this.name = new File(name).getName(); // never write outside the folder
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.totalChunks = Math.max(1, (int) ((fileSize + chunkSize - 1) / chunkSize));
+
+        this.partFile = new File(folder, this.name + ".part");
+        this.finalFile = new File(folder, this.name);
+
+        this.journal = TransferJournal.open(new File(folder, this.name + ".part.journal"), fileId, fileSize,
+                chunkSize);
+        this.out = new RandomAccessFile(partFile, "rw");
+
+        BitSet have = journal.getChunks();
+        this.resumedChunks = have.cardinality();
+        for (int i = have.nextSetBit(0); i >= 0; i = have.nextSetBit(i + 1))
+            receivedBytes += chunkLength(i);
+        this.resumedBytes = receivedBytes;
+    }
+
+    // Expected byte length of chunk i (the last one may be short)
+    public int chunkLength(int chunk) {
+        long start = (long) chunk * chunkSize;
+        return (int) Math.max(0, Math.min(chunkSize, fileSize - start));
+    }
+
+    /**
+     * Write a decoded chunk. Returns false if it was already present or does
+     * not fit this file.
+     */
+    public boolean writeChunk(int chunk, byte[] data) throws IOException {
+        if (finished || chunk < 0 || chunk >= totalChunks || journal.has(chunk))
+            return false;
+
+        if (data.length != chunkLength(chunk)) {
+            System.out.println("Chunk " + chunk + " has " + data.length + " bytes, expected " + chunkLength(chunk)
+                    + " → ignored");
+            return false;
+        }
+
+        out.seek((long) chunk * chunkSize);
+        out.write(data);
+        journal.mark(chunk);
+
+        receivedBytes += data.length;
+        return true;
+    }
+
+    public boolean hasChunk(int chunk) {
+        return journal.has(chunk);
+    }
+
+    // Live bitmap of chunks on disk
+    public BitSet getChunks() {
+        return journal.getChunks();
+    }
+
+    // Number of chunks received in order from chunk 0
+    public int contiguousChunks() {
+        contiguous = journal.getChunks().nextClearBit(contiguous);
+        return contiguous;
+    }
+
+    // Bytes [0, n) of the partial file that are final: every chunk before n is on disk
+    public long getAvailableBytes() {
+        return Math.min(fileSize, (long) contiguousChunks() * chunkSize);
+    }
+
+    public boolean isComplete() {
+        return contiguousChunks() >= totalChunks;
+    }
+
+    // Rename the partial file into place and drop the journal
+    public File finish() throws IOException {
+        if (finished)
+            return finalFile;
+
+        out.setLength(fileSize);
+        out.close();
+        journal.delete();
+
+        Files.move(partFile.toPath(), finalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        finished = true;
+        return finalFile;
+    }
+
+    // Close without finishing; the partial file and journal stay for a resume
+    public void close() {
+        if (finished)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Partial file close error: " + e.getMessage());
+        }
+        journal.close();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // "<name>.part", growing while the transfer runs
+    public File getPartFile() {
+        return partFile;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public int getResumedChunks() {
+        return resumedChunks;
+    }
+
+    public long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+}
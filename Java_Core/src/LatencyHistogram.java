@@ -0,0 +1,98 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram, kept in-tree
+ * so the core has no dependencies.
+ *
+ * Values (microseconds) below 128 get their own bucket; above that every
+ * power-of-two range is split into 64 linear sub-buckets, so any recorded
+ * value is reported within ~1.6%. Recording is lock-free and allocation-free,
+ * so the ACK path can call it directly.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64; // per power of two
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS; // values < 128 are exact
+    private static final int MAX_EXPONENT = 40; // ~2^46 µs ≈ 2 years, far above any timeout
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_LIMIT + MAX_EXPONENT * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        // shift so the top 7 bits land in [64, 128)
+        int shift = Math.min(63 - Long.numberOfLeadingZeros(value) - 6, MAX_EXPONENT);
+        long sub = Math.min(value >>> shift, LINEAR_LIMIT - 1);
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (sub - SUB_BUCKETS);
+    }
+
+    // Highest value that maps to bucket index
+    private static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT)
+            return index;
+
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public double getMean() {
+        long n = total.sum();
+        return (n == 0) ? 0 : sum.sum() / (double) n;
+    }
+
+    // Value at the given percentile (0-100), 0 if nothing was recorded
+    public long getPercentile(double percentile) {
+        long n = total.sum();
+        if (n == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return upperBoundOf(i);
+        }
+        return getMax();
+    }
+
+    public long getMax() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) > 0)
+                return upperBoundOf(i);
+        }
+        return 0;
+    }
+
+    // {"count":..,"mean":..,"p50":..,"p90":..,"p99":..,"p999":..,"max":..}
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d}",
+                getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99),
+                getPercentile(99.9), getMax());
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        total.reset();
+        sum.reset();
+    }
+}
@@ -8,6 +8,12 @@ public class Logger {
     private static InetAddress nodeAddress;
     private static int nodePort = 5000; // Node.js will listen here
 
+    // telemetry level (benchmarks run with it off, UI can drop per-packet events)
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_SUMMARY = 1; // file, compression and metrics events
+    public static final int LEVEL_PACKETS = 2; // + one event per packet / ACK / window move
+    private static volatile int level = LEVEL_PACKETS;
+
     static {
         try {
             socket = new DatagramSocket();
@@ -18,6 +24,8 @@ public class Logger {
     }
 
     public static void logPacketSent(int seq, int windowStart, int windowEnd) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format(
                 "{\"event\":\"PACKET_SENT\",\"seq\":%d,\"windowStart\":%d,\"windowEnd\":%d,\"timestamp\":%d}",
                 seq, windowStart, windowEnd, System.currentTimeMillis());
@@ -25,42 +33,62 @@ public class Logger {
     }
 
     public static void logPacketReceived(int seq) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format("{\"event\":\"PACKET_RECEIVED\",\"seq\":%d,\"timestamp\":%d}",
                 seq, System.currentTimeMillis());
         sendToNode(json);
     }
 
     public static void logAckSent(int ack) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format("{\"event\":\"ACK_SENT\",\"ack\":%d,\"timestamp\":%d}",
                 ack, System.currentTimeMillis());
         sendToNode(json);
     }
 
     public static void logAckReceived(int ack) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format("{\"event\":\"ACK_RECEIVED\",\"ack\":%d,\"timestamp\":%d}",
                 ack, System.currentTimeMillis());
         sendToNode(json);
     }
 
     public static void logTimeout(int seq) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format("{\"event\":\"TIMEOUT\",\"seq\":%d,\"timestamp\":%d}",
                 seq, System.currentTimeMillis());
         sendToNode(json);
     }
 
     public static void logRetransmission(int seq) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format("{\"event\":\"RETRANSMIT\",\"seq\":%d,\"timestamp\":%d}",
                 seq, System.currentTimeMillis());
         sendToNode(json);
     }
 
     public static void logWindowMove(int oldStart, int newStart, int newEnd) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format(
                 "{\"event\":\"WINDOW_MOVED\",\"oldStart\":%d,\"newStart\":%d,\"newEnd\":%d,\"timestamp\":%d}",
                 oldStart, newStart, newEnd, System.currentTimeMillis());
         sendToNode(json);
     }
 
+    public static void setLevel(int newLevel) {
+        level = Math.max(LEVEL_OFF, Math.min(LEVEL_PACKETS, newLevel));
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
     // Sends the JSON string as a UDP packet to Node.js
     private static void sendToNode(String json) {
         try {
@@ -77,6 +105,8 @@ public class Logger {
 
     // log progress
     public static void logProgress(long received, long total) {
+        if (level < LEVEL_PACKETS)
+            return;
         String json = String.format(
                 "{\"event\":\"PROGRESS_UPDATE\",\"received\":%d,\"total\":%d,\"timestamp\":%d}",
                 received, total, System.currentTimeMillis());
@@ -85,10 +115,40 @@ public class Logger {
 
     // log file completion
     public static void logFileComplete(String filename, long size) {
+        if (level < LEVEL_SUMMARY)
+            return;
         String json = String.format(
                 "{\"event\":\"FILE_COMPLETE\",\"filename\":\"%s\",\"size\":%d,\"timestamp\":%d}",
                 filename, size, System.currentTimeMillis());
         sendToNode(json);
     }
 
-}
\ No newline at end of file
+    // log the readable prefix [start, end) of a file still being received (into partial)
+    public static void logFilePartial(String filename, String partial, long end, long size) {
+        if (level < LEVEL_SUMMARY)
+            return;
+        String json = String.format(
+                "{\"event\":\"FILE_PARTIAL\",\"filename\":\"%s\",\"partial\":\"%s\",\"start\":0,\"end\":%d,\"size\":%d,\"timestamp\":%d}",
+                filename, partial, end, size, System.currentTimeMillis());
+        sendToNode(json);
+    }
+
+    // log compressed vs original bytes for a file (goodput = original / time)
+    public static void logCompression(String side, String filename, String codec, long originalBytes,
+            long wireBytes) {
+        if (level < LEVEL_SUMMARY)
+            return;
+        String json = String.format(
+                "{\"event\":\"COMPRESSION_STATS\",\"side\":\"%s\",\"filename\":\"%s\",\"codec\":\"%s\",\"originalBytes\":%d,\"wireBytes\":%d,\"timestamp\":%d}",
+                side, filename, codec, originalBytes, wireBytes, System.currentTimeMillis());
+        sendToNode(json);
+    }
+
+    // periodic / on-demand metrics snapshot (already JSON, see Metrics.snapshotJson)
+    public static void logMetrics(String snapshotJson) {
+        if (level < LEVEL_SUMMARY)
+            return;
+        sendToNode(snapshotJson);
+    }
+
+}
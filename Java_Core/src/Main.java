@@ -1,12 +1,35 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
 public class Main {
 
+    // java Main [file] [--window=20] [--host=127.0.0.1] [--port=6000] [--capture=dir]
+    // java Main bench [--size=1m --window=64 ...]   (see Benchmark)
     public static void main(String[] args) throws Exception {
 
-        int receiverPort = 6000;
-        String receiverIp = "127.0.0.1";
-        int windowSize = 20;
+        if (args.length > 0 && args[0].equals("bench")) {
+            Benchmark.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        String filePath = "../test.jpg";
+        if (args.length > 0 && !args[0].startsWith("--")) {
+            filePath = args[0];
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        Map<String, String> opts = Benchmark.parseArgs(args);
+        int receiverPort = Integer.parseInt(opts.getOrDefault("port", "6000"));
+        String receiverIp = opts.getOrDefault("host", "127.0.0.1");
+        int windowSize = Integer.parseInt(opts.getOrDefault("window", "20"));
+        String captureDir = opts.get("capture"); // packet traces for TraceReplay
 
-        // Start Receiver in background thread
+        // Packet/codec/Logger paths hot before the first packet
+        SenderPool.warmUp();
+
+        // Start Receiver in background thread (its socket is bound here, so
+        // the sender's SYN waits in the socket buffer until the loop runs)
         Receiver receiver = new Receiver(receiverPort);
 
         Thread receiverThread = new Thread(() -> {
@@ -19,19 +42,27 @@ public class Main {
 
         receiverThread.start();
 
-        // Give receiver time to start
-        Thread.sleep(1000);
+        // Start Sender (the SYN handshake replaces a fixed startup sleep)
+        Sender sender = SenderPool.acquire(receiverIp, receiverPort, windowSize);
 
-        // Start Sender
-        Sender sender = new Sender(receiverIp, receiverPort, windowSize);
+        // ACKs go through the same emulated link (REVERSE direction)
+        receiver.setNetworkEmulator(sender.getNetworkEmulator());
 
-        // -------- SELECT FILE TO SEND --------
-        String filePath = "E:\\NetViz\\Java_Core\\test.jpg";
+        PacketCapture senderCapture = null, receiverCapture = null;
+        if (captureDir != null) {
+            new File(captureDir).mkdirs();
+            senderCapture = PacketCapture.open(new File(captureDir, "sender.nvtrace").getPath(),
+                    PacketCapture.SIDE_SENDER);
+            receiverCapture = PacketCapture.open(new File(captureDir, "receiver.nvtrace").getPath(),
+                    PacketCapture.SIDE_RECEIVER);
+            sender.setCapture(senderCapture);
+            receiver.setCapture(receiverCapture);
+        }
 
         System.out.println("\n===== SENDER STARTED FILE TRANSMISSION =====");
 
         sender.sendFile(filePath);
-        sender.close();
+        SenderPool.closeAll();
 
         System.out.println("===== SENDER FINISHED SENDING FILE =====\n");
 
@@ -41,6 +72,11 @@ public class Main {
         // Stop receiver
         receiver.stop();
 
+        if (senderCapture != null) {
+            senderCapture.close();
+            receiverCapture.close();
+        }
+
         System.out.println("All processes completed.");
     }
 }
@@ -0,0 +1,220 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide transfer metrics (counters, window occupancy and latency
+ * histograms). Recording is lock-free so the send loop, ACK listener and
+ * receiver can call it on every packet.
+ *
+ * Snapshots go to Node.js as periodic METRICS events (startReporter) and
+ * are returned on demand for GET_STATS on the control port.
+ */
+public class Metrics {
+
+    // sender side
+    private static final LongAdder packetsSent = new LongAdder();
+    private static final LongAdder bytesSent = new LongAdder();
+    private static final LongAdder retransmits = new LongAdder();
+    private static final LongAdder retransmittedBytes = new LongAdder();
+    private static final LongAdder acksReceived = new LongAdder();
+    private static final AtomicInteger windowOccupancy = new AtomicInteger();
+    private static final AtomicInteger windowOccupancyMax = new AtomicInteger();
+    private static final AtomicInteger receiveWindow = new AtomicInteger(-1); // last advertised, -1 = none yet
+    private static final LongAdder zeroWindows = new LongAdder();
+    private static final LongAdder windowProbes = new LongAdder();
+
+    // receiver side
+    private static final LongAdder packetsReceived = new LongAdder();
+    private static final LongAdder bytesReceived = new LongAdder();
+    private static final LongAdder duplicates = new LongAdder();
+    private static final LongAdder checksumFailures = new LongAdder();
+    private static final LongAdder acksSent = new LongAdder();
+    private static final LongAdder goodputBytes = new LongAdder(); // new file bytes written to disk
+    private static final LongAdder filesCompleted = new LongAdder();
+    private static final LongAdder receiveBufferOverflows = new LongAdder(); // datagrams dropped, inbox full
+    private static final LongAdder rejected = new LongAdder(); // valid checksum, but unusable (bad metadata, I/O error)
+
+    // send → cumulative ACK for never-retransmitted packets (Karn), µs
+    private static final LatencyHistogram rtt = new LatencyHistogram();
+    // ACK arrival on the listener thread → applied by the send loop, µs
+    private static final LatencyHistogram ackLatency = new LatencyHistogram();
+
+    private static volatile long startNanos = System.nanoTime();
+    private static Thread reporter;
+
+    // ---------------- Sender ----------------
+
+    public static void packetSent(int bytes) {
+        packetsSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    public static void retransmitted(int bytes) {
+        retransmits.increment();
+        retransmittedBytes.add(bytes);
+        packetSent(bytes);
+    }
+
+    public static void ackReceived() {
+        acksReceived.increment();
+    }
+
+    public static void windowOccupancy(int inFlight) {
+        windowOccupancy.set(inFlight);
+        windowOccupancyMax.accumulateAndGet(inFlight, Math::max);
+    }
+
+    public static void receiveWindow(int packets) {
+        receiveWindow.set(packets);
+    }
+
+    public static void zeroWindow() {
+        zeroWindows.increment();
+    }
+
+    public static void windowProbe() {
+        windowProbes.increment();
+    }
+
+    public static void rttSample(long nanos) {
+        rtt.record(nanos / 1000);
+    }
+
+    public static void ackLatencySample(long nanos) {
+        ackLatency.record(nanos / 1000);
+    }
+
+    // ---------------- Receiver ----------------
+
+    public static void packetReceived(int bytes) {
+        packetsReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    public static void duplicate() {
+        duplicates.increment();
+    }
+
+    public static void checksumFailure() {
+        checksumFailures.increment();
+    }
+
+    public static void ackSent() {
+        acksSent.increment();
+    }
+
+    public static void delivered(int bytes) {
+        goodputBytes.add(bytes);
+    }
+
+    public static void fileCompleted() {
+        filesCompleted.increment();
+    }
+
+    public static void receiveBufferOverflow() {
+        receiveBufferOverflows.increment();
+    }
+
+    public static void rejected() {
+        rejected.increment();
+    }
+
+    // ---------------- Reading ----------------
+
+    public static long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    public static long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public static long getRetransmits() {
+        return retransmits.sum();
+    }
+
+    public static long getGoodputBytes() {
+        return goodputBytes.sum();
+    }
+
+    public static LatencyHistogram getRtt() {
+        return rtt;
+    }
+
+    public static LatencyHistogram getAckLatency() {
+        return ackLatency;
+    }
+
+    // Seconds since start or last reset
+    public static double getElapsedSeconds() {
+        return Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    public static String snapshotJson() {
+        double elapsed = getElapsedSeconds();
+        long sent = packetsSent.sum();
+
+        return String.format(Locale.ROOT, "{\"event\":\"METRICS\",\"elapsedMs\":%d,"
+                + "\"sender\":{\"packetsSent\":%d,\"bytesSent\":%d,\"retransmits\":%d,\"retransmittedBytes\":%d,"
+                + "\"retransmitRatio\":%.4f,\"acksReceived\":%d,\"windowOccupancy\":%d,"
+                + "\"windowOccupancyMax\":%d,\"receiveWindow\":%d,\"zeroWindows\":%d,\"windowProbes\":%d,"
+                + "\"throughputBps\":%.0f},"
+                + "\"receiver\":{\"packetsReceived\":%d,\"bytesReceived\":%d,\"duplicates\":%d,"
+                + "\"checksumFailures\":%d,\"acksSent\":%d,\"goodputBytes\":%d,\"goodputBps\":%.0f,"
+                + "\"filesCompleted\":%d,\"bufferOverflows\":%d,\"rejected\":%d},"
+                + "\"rttUs\":%s,\"ackLatencyUs\":%s,\"timestamp\":%d}",
+                (long) (elapsed * 1000),
+                sent, bytesSent.sum(), retransmits.sum(), retransmittedBytes.sum(),
+                (sent == 0) ? 0.0 : retransmits.sum() / (double) sent,
+                acksReceived.sum(), windowOccupancy.get(), windowOccupancyMax.get(), receiveWindow.get(),
+                zeroWindows.sum(), windowProbes.sum(), bytesSent.sum() * 8 / elapsed,
+                packetsReceived.sum(), bytesReceived.sum(), duplicates.sum(),
+                checksumFailures.sum(), acksSent.sum(), goodputBytes.sum(), goodputBytes.sum() * 8 / elapsed,
+                filesCompleted.sum(), receiveBufferOverflows.sum(), rejected.sum(),
+                rtt.toJson(), ackLatency.toJson(), System.currentTimeMillis());
+    }
+
+    // One-line human summary for the end of a transfer
+    public static String summary() {
+        double elapsed = getElapsedSeconds();
+        long sent = packetsSent.sum();
+        return String.format(Locale.ROOT, "%d packets (%d bytes) sent, %d retransmitted (%.1f%%), "
+                + "%.1f KB/s goodput, RTT p50=%.2fms p99=%.2fms, ACK apply p99=%dµs",
+                sent, bytesSent.sum(), retransmits.sum(), (sent == 0) ? 0.0 : 100.0 * retransmits.sum() / sent,
+                goodputBytes.sum() / 1024.0 / elapsed, rtt.getPercentile(50) / 1000.0,
+                rtt.getPercentile(99) / 1000.0, ackLatency.getPercentile(99));
+    }
+
+    // Push a METRICS snapshot to Node.js every intervalMs (once per process)
+    public static synchronized void startReporter(long intervalMs) {
+        if (reporter != null)
+            return;
+
+        reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Logger.logMetrics(snapshotJson());
+            }
+        }, "metrics-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    public static void reset() {
+        for (LongAdder a : new LongAdder[] { packetsSent, bytesSent, retransmits, retransmittedBytes, acksReceived,
+                zeroWindows, windowProbes, packetsReceived, bytesReceived, duplicates, checksumFailures, acksSent,
+                goodputBytes, filesCompleted, receiveBufferOverflows, rejected })
+            a.reset();
+        receiveWindow.set(-1);
+        windowOccupancy.set(0);
+        windowOccupancyMax.set(0);
+        rtt.reset();
+        ackLatency.reset();
+        startNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,454 @@
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Seeded in-process network emulator that sits between a transport and its
+ * socket. FORWARD impairs sender → receiver traffic (metadata, data, FIN),
+ * REVERSE impairs receiver → sender traffic (ACK, RESUME).
+ *
+ * Per direction: random loss or Gilbert-Elliott burst loss, fixed delay
+ * plus jitter, reordering, duplication, bit corruption and a bandwidth cap.
+ * A packet's fate is a function of (seed, direction, type, seq relative to
+ * the session's SYN, how often that packet crossed before), not of send
+ * order, so a run with the same seed loses the same packets even when
+ * retransmissions, probes and ACKs interleave differently. Burst state
+ * follows a Gilbert-Elliott chain over the seqs of first transmissions;
+ * a retransmission draws the chain's steady state. Only the bandwidth cap
+ * depends on timing (it queues packets behind each other).
+ *
+ * With everything off, send() is a plain socket.send().
+ */
+public class NetworkEmulator {
+
+    public enum Direction {
+        FORWARD, REVERSE
+    }
+
+    private final Link forward;
+    private final Link reverse;
+
+    // delayed packets, delivered by one daemon thread
+    private final DelayQueue<Scheduled> queue = new DelayQueue<>();
+    private final AtomicLong order = new AtomicLong(); // FIFO among packets due at the same instant
+    private Thread deliveryThread;
+    private boolean closed = false;
+    private volatile int sessionIsn = 0; // seq of the last SYN seen either way: seqs are hashed relative to it
+
+    public NetworkEmulator(long seed) {
+        this.forward = new Link("FORWARD", seed);
+        this.reverse = new Link("REVERSE", seed * 31 + 17);
+    }
+
+    public Link link(Direction direction) {
+        return (direction == Direction.FORWARD) ? forward : reverse;
+    }
+
+    public Link forward() {
+        return forward;
+    }
+
+    public Link reverse() {
+        return reverse;
+    }
+
+    // Re-seed both directions (restarts their random streams and burst state)
+    public void setSeed(long seed) {
+        forward.reseed(seed);
+        reverse.reseed(seed * 31 + 17);
+    }
+
+    /**
+     * Send a datagram through the impaired link. The packet's bytes are
+     * copied, so the caller may reuse its buffer.
+     */
+    public void send(DatagramSocket socket, DatagramPacket packet, Direction direction) throws Exception {
+        Link link = link(direction);
+        if (!link.isActive()) {
+            socket.send(packet);
+            return;
+        }
+
+        byte[] data = java.util.Arrays.copyOfRange(packet.getData(), packet.getOffset(),
+                packet.getOffset() + packet.getLength());
+
+        byte type = (data.length > 0) ? data[0] : -1;
+        int seq = seqOf(data);
+        if (type == CustomPacket.TYPE_SYN && seq != sessionIsn) {
+            sessionIsn = seq;
+            forward.newSession();
+            reverse.newSession();
+        }
+
+        long now = System.nanoTime();
+        long deliverAt;
+        boolean duplicate;
+
+        synchronized (link) {
+            link.begin(type, (seq == -1) ? -1 : seq - sessionIsn);
+            if (link.shouldDrop()) {
+                System.out.println("⚠️ [SIMULATION] " + describe(data) + " lost in transit (" + link.name + ")");
+                return;
+            }
+
+            link.maybeCorrupt(data);
+            deliverAt = link.departureTime(now, data.length) + link.delayNanos();
+            duplicate = link.shouldDuplicate();
+        }
+
+        schedule(socket, data, packet.getAddress(), packet.getPort(), deliverAt, now);
+        if (duplicate)
+            schedule(socket, data.clone(), packet.getAddress(), packet.getPort(), deliverAt, now);
+    }
+
+    private void schedule(DatagramSocket socket, byte[] data, InetAddress address, int port, long deliverAt,
+            long now) throws Exception {
+        if (deliverAt <= now) {
+            socket.send(new DatagramPacket(data, data.length, address, port));
+            return;
+        }
+
+        synchronized (this) {
+            if (closed)
+                return; // emulator closed with its transport: the packet is lost
+            if (deliveryThread == null) {
+                deliveryThread = new Thread(this::deliverLoop, "netem");
+                deliveryThread.setDaemon(true);
+                deliveryThread.start();
+            }
+        }
+        queue.put(new Scheduled(socket, data, address, port, deliverAt, order.getAndIncrement()));
+    }
+
+    private void deliverLoop() {
+        while (true) {
+            try {
+                Scheduled s = queue.take();
+                if (!s.socket.isClosed())
+                    s.socket.send(new DatagramPacket(s.data, s.data.length, s.address, s.port));
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // socket closed while the packet was in flight → the packet is lost
+            }
+        }
+    }
+
+    // Stop the delivery thread and drop packets still in flight (called when the transport closes)
+    public synchronized void close() {
+        closed = true;
+        if (deliveryThread != null) {
+            deliveryThread.interrupt();
+            deliveryThread = null;
+        }
+        queue.clear();
+    }
+
+    private static int seqOf(byte[] data) {
+        if (data.length < 5)
+            return 0;
+        return ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+    }
+
+    // "DATA 12" / "ACK 7" for simulation logs
+    private static String describe(byte[] data) {
+        if (data.length < 5)
+            return "Packet";
+        int seq = seqOf(data);
+        switch (data[0]) {
+            case CustomPacket.TYPE_DATA:
+                return "Packet " + seq;
+            case CustomPacket.TYPE_METADATA:
+                return "Metadata " + seq;
+            case CustomPacket.TYPE_ACK:
+                return "ACK " + seq;
+            case CustomPacket.TYPE_FIN:
+                return "FIN";
+            case CustomPacket.TYPE_RESUME:
+                return "RESUME " + seq;
+            case CustomPacket.TYPE_PROBE:
+                return "Window probe";
+            case CustomPacket.TYPE_SYN:
+                return "SYN " + seq;
+            default:
+                return "Packet type " + data[0];
+        }
+    }
+
+    /**
+     * Impairments for one direction. Probabilities are 0..1, times in ms,
+     * bandwidth in bits per second (0 = unlimited).
+     */
+    public static class Link {
+
+        // (type, seq) keys whose crossings are counted; older ones are forgotten (a retransmission
+        // that late starts again at attempt 0, still the same for the same history)
+        private static final int MAX_TRACKED_PACKETS = 1 << 16;
+        // burst chain states kept before it restarts at the current seq
+        private static final int MAX_CHAIN = 1 << 22;
+
+        private final String name;
+        private long seed;
+        private SplittableRandom random; // draws of the packet being decided (begin())
+        private int attempt; // earlier crossings of that packet
+        private int seq;
+
+        private final Map<Long, Integer> attempts = new LinkedHashMap<Long, Integer>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > MAX_TRACKED_PACKETS;
+            }
+        };
+
+        // Gilbert-Elliott chain over first transmissions: bit i = seq chainBase + i is in the bad state
+        private final BitSet chain = new BitSet();
+        private int chainBase;
+        private int chainLength = 0;
+
+        private volatile double loss = 0; // loss probability (good state)
+        private volatile double burstEnter = 0; // Gilbert-Elliott p: good → bad per packet
+        private volatile double burstExit = 1; // Gilbert-Elliott r: bad → good per packet
+        private volatile double burstLoss = 1; // loss probability in the bad state
+        private volatile int delayMs = 0;
+        private volatile int jitterMs = 0;
+        private volatile double reorder = 0; // probability a packet is held back by reorderGapMs
+        private volatile int reorderGapMs = 20;
+        private volatile double duplicate = 0;
+        private volatile double corrupt = 0; // probability of one flipped bit
+        private volatile long bandwidthBps = 0;
+
+        private long nextDeparture = 0; // bandwidth cap: when the link is free again
+
+        Link(String name, long seed) {
+            this.name = name;
+            this.seed = seed;
+        }
+
+        synchronized void reseed(long seed) {
+            this.seed = seed;
+            newSession();
+            nextDeparture = 0;
+        }
+
+        // seqs restart relative to a new SYN: forget attempts and the burst chain
+        synchronized void newSession() {
+            attempts.clear();
+            chain.clear();
+            chainLength = 0;
+        }
+
+        // caller holds the Link lock; the decisions that follow draw from this packet's own stream
+        void begin(byte type, int seq) {
+            long key = ((long) type << 32) | (seq & 0xFFFFFFFFL);
+            Integer seen = attempts.get(key);
+            this.attempt = (seen == null) ? 0 : seen;
+            attempts.put(key, attempt + 1);
+            this.seq = seq;
+            this.random = new SplittableRandom(mix(mix(mix(seed, type), seq), attempt));
+        }
+
+        boolean isActive() {
+            return loss > 0 || burstEnter > 0 || delayMs > 0 || jitterMs > 0 || reorder > 0 || duplicate > 0
+                    || corrupt > 0 || bandwidthBps > 0;
+        }
+
+        // caller holds the Link lock
+        boolean shouldDrop() {
+            double p = inBurst() ? burstLoss : loss;
+            return p > 0 && random.nextDouble() < p;
+        }
+
+        private boolean inBurst() {
+            if (burstEnter <= 0)
+                return false;
+            double steady = burstEnter / (burstEnter + burstExit);
+            if (attempt > 0 || seq < 0)
+                return random.nextDouble() < steady;
+
+            int i = seq - chainBase;
+            if (chainLength == 0 || i < 0 || i >= MAX_CHAIN) {
+                // first packet, or far outside the chain: restart it here in the steady state
+                chain.clear();
+                chainBase = seq;
+                chainLength = 0;
+                i = 0;
+            }
+            while (chainLength <= i) {
+                double u = new SplittableRandom(mix(seed, chainBase + chainLength)).nextDouble();
+                boolean bad = (chainLength == 0) ? u < steady
+                        : chain.get(chainLength - 1) ? u >= burstExit : u < burstEnter;
+                chain.set(chainLength++, bad);
+            }
+            return chain.get(i);
+        }
+
+        private static long mix(long h, long v) {
+            h ^= v;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            return h ^ (h >>> 33);
+        }
+
+        // Flip one bit. The checksum covers only the payload, so header bytes are
+        // left alone (a flipped seq would be accepted as valid); packets without a
+        // payload get the checksum field itself flipped.
+        void maybeCorrupt(byte[] data) {
+            if (corrupt <= 0 || random.nextDouble() >= corrupt || data.length < 9)
+                return;
+
+            int index = (data.length > 9) ? 9 + random.nextInt(data.length - 9) : 7 + random.nextInt(2);
+            data[index] ^= (byte) (1 << random.nextInt(8));
+            System.out.println("⚠️ [SIMULATION] Bit flipped in " + describe(data) + " (" + name + ")");
+        }
+
+        long departureTime(long now, int bytes) {
+            if (bandwidthBps <= 0)
+                return now;
+            long start = Math.max(now, nextDeparture);
+            nextDeparture = start + bytes * 8L * 1_000_000_000L / bandwidthBps;
+            return nextDeparture;
+        }
+
+        long delayNanos() {
+            long ms = delayMs;
+            if (jitterMs > 0)
+                ms += random.nextInt(2 * jitterMs + 1) - jitterMs;
+            if (reorder > 0 && random.nextDouble() < reorder)
+                ms += reorderGapMs;
+            return Math.max(0, ms) * 1_000_000L;
+        }
+
+        boolean shouldDuplicate() {
+            return duplicate > 0 && random.nextDouble() < duplicate;
+        }
+
+        // ---------------- Settings ----------------
+
+        public void setLoss(double loss) {
+            this.loss = clamp(loss);
+        }
+
+        // Gilbert-Elliott burst loss; enter = 0 turns it off
+        public void setBurstLoss(double enter, double exit, double lossInBurst) {
+            this.burstExit = clamp(exit);
+            this.burstLoss = clamp(lossInBurst);
+            this.burstEnter = clamp(enter);
+        }
+
+        public void setDelay(int delayMs, int jitterMs) {
+            this.delayMs = Math.max(0, delayMs);
+            this.jitterMs = Math.max(0, jitterMs);
+        }
+
+        public void setReorder(double probability, int gapMs) {
+            this.reorderGapMs = Math.max(0, gapMs);
+            this.reorder = clamp(probability);
+        }
+
+        public void setDuplicate(double probability) {
+            this.duplicate = clamp(probability);
+        }
+
+        public void setCorrupt(double probability) {
+            this.corrupt = clamp(probability);
+        }
+
+        public void setBandwidth(long bitsPerSecond) {
+            this.bandwidthBps = Math.max(0, bitsPerSecond);
+        }
+
+        public double getLoss() {
+            return loss;
+        }
+
+        public double getBurstEnter() {
+            return burstEnter;
+        }
+
+        public double getBurstExit() {
+            return burstExit;
+        }
+
+        public double getBurstLoss() {
+            return burstLoss;
+        }
+
+        public int getDelayMs() {
+            return delayMs;
+        }
+
+        public int getJitterMs() {
+            return jitterMs;
+        }
+
+        public double getReorder() {
+            return reorder;
+        }
+
+        public int getReorderGapMs() {
+            return reorderGapMs;
+        }
+
+        public double getDuplicate() {
+            return duplicate;
+        }
+
+        public double getCorrupt() {
+            return corrupt;
+        }
+
+        public long getBandwidth() {
+            return bandwidthBps;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s loss=%.3f burst(p=%.3f r=%.3f loss=%.3f) delay=%dms±%d reorder=%.3f/%dms "
+                    + "dup=%.3f corrupt=%.3f bw=%dbps", name, loss, burstEnter, burstExit, burstLoss, delayMs,
+                    jitterMs, reorder, reorderGapMs, duplicate, corrupt, bandwidthBps);
+        }
+
+        private static double clamp(double p) {
+            return Math.max(0, Math.min(1, p));
+        }
+    }
+
+    private static class Scheduled implements Delayed {
+        final DatagramSocket socket;
+        final byte[] data;
+        final InetAddress address;
+        final int port;
+        final long deliverAt;
+        final long order;
+
+        Scheduled(DatagramSocket socket, byte[] data, InetAddress address, int port, long deliverAt, long order) {
+            this.socket = socket;
+            this.data = data;
+            this.address = address;
+            this.port = port;
+            this.deliverAt = deliverAt;
+            this.order = order;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deliverAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Scheduled o = (Scheduled) other;
+            int c = Long.compare(deliverAt, o.deliverAt);
+            return (c != 0) ? c : Long.compare(order, o.order);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Packet trace of one endpoint: a fixed-size record per CustomPacket header
+ * it sent or received, appended to a memory-mapped file (no syscall and no
+ * payload copy per packet). Read back with read(), replayed by TraceReplay.
+ *
+ * File:   [magic "NVTR"(4)][version(1)][side(1)][recordBytes(2)][start epoch ms(8)]
+ * Record: [ns since start(8)][flags(1)][type(1)][seq(4)][len(2)][checksum(2)]
+ *
+ * The last four record fields are the packet's own 9 header bytes. flags is
+ * DIR_OUT or DIR_IN, plus INVALID for a received packet that was malformed
+ * or failed its checksum (it never reached the window or reassembly). A zero
+ * flags byte ends a trace whose writer did not close it.
+ */
+public class PacketCapture implements AutoCloseable {
+
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 18;
+    public static final byte VERSION = 1;
+
+    public static final byte SIDE_SENDER = 1;
+    public static final byte SIDE_RECEIVER = 2;
+
+    public static final byte DIR_OUT = 1;
+    public static final byte DIR_IN = 2;
+    public static final byte INVALID = 0x10;
+
+    private static final int PACKET_HEADER_BYTES = 9;
+    private static final long SEGMENT_BYTES = (1 << 16) * (long) RECORD_BYTES; // 64K records mapped at a time
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long startNanos;
+    private MappedByteBuffer segment;
+    private long segmentOffset;
+    private long records = 0;
+    private boolean closed = false;
+
+    private PacketCapture(Path path, byte side) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.startNanos = System.nanoTime();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.put((byte) 'N').put((byte) 'V').put((byte) 'T').put((byte) 'R')
+                .put(VERSION).put(side).putShort((short) RECORD_BYTES).putLong(System.currentTimeMillis());
+        header.flip();
+        channel.write(header, 0);
+
+        map(HEADER_BYTES);
+    }
+
+    // New (truncated) trace file for a Sender (SIDE_SENDER) or Receiver (SIDE_RECEIVER)
+    public static PacketCapture open(String path, byte side) throws IOException {
+        return new PacketCapture(Paths.get(path), side);
+    }
+
+    private void map(long offset) throws IOException {
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, offset, SEGMENT_BYTES);
+        segmentOffset = offset;
+    }
+
+    /**
+     * Append the header of a datagram as the endpoint sent or received it
+     * (bytes[0 .. length)). Called from the send loop and the socket
+     * threads; a short datagram is recorded with the bytes it has.
+     */
+    public synchronized void record(byte flags, byte[] bytes, int length) {
+        if (closed)
+            return;
+
+        long nanos = System.nanoTime() - startNanos;
+
+        if (!segment.hasRemaining()) {
+            try {
+                map(segmentOffset + SEGMENT_BYTES);
+            } catch (IOException e) {
+                System.out.println("[Capture] " + path + ": " + e.getMessage() + " → capture stopped");
+                closed = true;
+                return;
+            }
+        }
+
+        segment.putLong(nanos);
+        if (length >= PACKET_HEADER_BYTES) {
+            segment.put(flags).put(bytes, 0, PACKET_HEADER_BYTES);
+        } else {
+            segment.put((byte) (flags | INVALID)).put(bytes, 0, Math.max(0, length));
+            for (int i = Math.max(0, length); i < PACKET_HEADER_BYTES; i++)
+                segment.put((byte) 0);
+        }
+        records++;
+    }
+
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Flush and cut the file to the records written (the mapping over-allocates)
+    @Override
+    public synchronized void close() {
+        if (closed && !channel.isOpen())
+            return;
+        closed = true;
+
+        try {
+            segment.force();
+            channel.truncate(HEADER_BYTES + records * RECORD_BYTES);
+        } catch (IOException | UncheckedIOException e) {
+            // a still-mapped region can block the truncate on some platforms;
+            // readers stop at the first zero record anyway
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("[Capture] close failed: " + e.getMessage());
+        }
+        System.out.println("[Capture] " + records + " packets → " + path);
+    }
+
+    /**
+     * A trace loaded into parallel arrays (index = record order), so a
+     * replay loop reads primitives only.
+     */
+    public static class Trace {
+        public final byte side;
+        public final long startEpochMs;
+        public final int count;
+        public final long[] nanos;
+        public final byte[] flags;
+        public final byte[] type;
+        public final int[] seq;
+        public final int[] length; // payload length (unsigned)
+        public final short[] checksum;
+
+        Trace(byte side, long startEpochMs, int count) {
+            this.side = side;
+            this.startEpochMs = startEpochMs;
+            this.count = count;
+            this.nanos = new long[count];
+            this.flags = new byte[count];
+            this.type = new byte[count];
+            this.seq = new int[count];
+            this.length = new int[count];
+            this.checksum = new short[count];
+        }
+
+        public boolean isOutgoing(int i) {
+            return (flags[i] & DIR_OUT) != 0;
+        }
+
+        public boolean isValid(int i) {
+            return (flags[i] & INVALID) == 0;
+        }
+    }
+
+    public static Trace read(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES)
+                throw new IOException(path + ": not a packet trace (too short)");
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + ": trace larger than 2 GB");
+
+            MappedByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (bb.get() != 'N' || bb.get() != 'V' || bb.get() != 'T' || bb.get() != 'R')
+                throw new IOException(path + ": not a packet trace (bad magic)");
+            byte version = bb.get();
+            byte side = bb.get();
+            int recordBytes = bb.getShort() & 0xFFFF;
+            long startEpochMs = bb.getLong();
+            if (version != VERSION || recordBytes != RECORD_BYTES)
+                throw new IOException(path + ": unsupported trace version " + version);
+
+            // count up to the first unwritten record
+            int max = (int) ((size - HEADER_BYTES) / RECORD_BYTES);
+            int count = 0;
+            while (count < max && bb.get(HEADER_BYTES + count * RECORD_BYTES + 8) != 0)
+                count++;
+
+            Trace trace = new Trace(side, startEpochMs, count);
+            for (int i = 0; i < count; i++) {
+                trace.nanos[i] = bb.getLong();
+                trace.flags[i] = bb.get();
+                trace.type[i] = bb.get();
+                trace.seq[i] = bb.getInt();
+                trace.length[i] = bb.getShort() & 0xFFFF;
+                trace.checksum[i] = bb.getShort();
+            }
+            return trace;
+        }
+    }
+}
@@ -5,122 +5,400 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class Receiver {
 
+    // bitmap bytes per RESUME packet (8192 chunks)
+    private static final int RESUME_SLICE_BYTES = 1024;
+
+    // at most one FILE_PARTIAL per file per interval
+    private static final long PARTIAL_INTERVAL_MS = 250;
+
+    // SYN echo lists up to this many resumable file ids (8 bytes each, under 1 KB), more → RESUME_OFFER_ALL
+    private static final int MAX_RESUME_OFFER = 127;
+    static final int RESUME_OFFER_ALL = 0xFFFF;
+
+    // datagrams between the socket reader and reassembly/disk writes (packets)
+    private static final int DEFAULT_RECEIVE_BUFFER = 256;
+
+    // largest datagram a sender may send (60000-byte chunk + header + codec framing)
+    private static final int MAX_DATAGRAM_BYTES = 60 * 1024;
+    // kernel bookkeeping per queued datagram (Linux charges ~2.3 KB for a 1 KB one)
+    private static final int KERNEL_DATAGRAM_OVERHEAD = 1280;
+
     private DatagramSocket socket; // udp receiver socket
-    private InetAddress senderAddress; // sender ip
+    private InetAddress senderAddress; // sender ip (of the open session once a SYN arrived)
     private int senderPort; // sender port
 
-    private String outputFileName; // filename from metadata
-    private long expectedFileSize = -1; // size of file
-    private long receivedBytesTotal = 0; // total bytes received
+    // Save inside Node_Bridge/received/
+    private File outputFolder = new File("../../Node_Bridge/received");
+
+    // files of this session keyed by base seq (the seq of their metadata packet)
+    private TreeMap<Integer, Transfer> transfers = new TreeMap<>();
+    private List<File> completedFiles = new ArrayList<>();
 
-    private Map<Integer, byte[]> receivedBuffer = new HashMap<>(); // to store chunks
+    private byte offeredCodec = ChunkCodec.ID_NONE; // codec offered in metadata (0 = raw chunks)
+    private ChunkCodec codec; // accepted codec, null if none/unsupported
+
+    private Map<Integer, byte[]> pendingChunks = new HashMap<>(); // data that arrived before its metadata
     private int expectedSeq = 0; // sliding expected seq
+    private int sessionIsn = 0; // first seq of the current session (from SYN)
+    private boolean sessionOpen = false; // a SYN started the current session
+    private byte[] resumeOffer = new byte[2]; // [count(2)][fileId(8) ...] of the partial files on disk at SYN
+
+    private volatile boolean running = true; // loop flag (one session)
+    private volatile boolean stopped = false; // stop() called: no more sessions
+    private Thread reader;
+
+    // filled by the socket reader, drained by receiveData(); its free space is
+    // the receive window advertised in every ACK
+    private BlockingQueue<DatagramPacket> inbox = new ArrayBlockingQueue<>(DEFAULT_RECEIVE_BUFFER);
+    private int receiveBuffer = DEFAULT_RECEIVE_BUFFER;
+    private int socketBufferBytes; // SO_RCVBUF as granted by the kernel (may be capped below what we asked)
+    private int datagramBytes = 1024 + 9; // datagram size of the current file (header + chunk)
+
+    // packet trace of this endpoint (null = off)
+    private volatile PacketCapture capture;
+
+    // impairs ACK/RESUME traffic when set (REVERSE direction)
+    private NetworkEmulator emulator;
+
+    // One file of the batch: seqs base .. base + file.getTotalChunks() - 1
+    private static class Transfer {
+        final int baseSeq;
+        final long fileId;
+        final IncomingFile file;
+        long wireBytes = 0; // chunk bytes as they arrived (compressed size)
+        long partialBytes = 0; // prefix last announced in FILE_PARTIAL
+        long partialAt = 0;
+
+        Transfer(int baseSeq, long fileId, IncomingFile file) {
+            this.baseSeq = baseSeq;
+            this.fileId = fileId;
+            this.file = file;
+        }
 
-    private boolean running = true; // loop flag
+        // a retransmission of the metadata this transfer was opened with
+        boolean matches(Metadata meta) {
+            return meta.fileId == fileId && file.getName().equals(new File(meta.fileName).getName());
+        }
+
+        boolean contains(int seq) {
+            return seq >= baseSeq && seq - baseSeq < file.getTotalChunks();
+        }
+    }
 
     public Receiver(int listenPort) throws Exception {
         this.socket = new DatagramSocket(listenPort);
+        sizeSocketBuffer();
         System.out.println("Receiver listening on port " + listenPort);
     }
 
-    // main receive loop
-    public byte[] receiveData() throws Exception {
+    /**
+     * The kernel queues datagrams before the reader moves them to the inbox;
+     * ask for room for a full inbox of the largest datagrams. The kernel may
+     * grant less (net.core.rmem_max), so the advertised window is capped by
+     * what it granted as well (advertisedWindow()).
+     */
+    private void sizeSocketBuffer() throws IOException {
+        int wanted = (int) Math.min(Integer.MAX_VALUE, (long) receiveBuffer * MAX_DATAGRAM_BYTES);
+        socket.setReceiveBufferSize(wanted);
+        socketBufferBytes = socket.getReceiveBufferSize();
+        if (socketBufferBytes < wanted)
+            System.out.println("[Receiver] Socket receive buffer " + socketBufferBytes + " bytes (asked " + wanted
+                    + ", capped by the OS): window limited to what fits");
+    }
+
+    // Free inbox slots, capped by the datagrams of the current size the socket buffer holds
+    private int advertisedWindow() {
+        int socketPackets = socketBufferBytes / (datagramBytes + KERNEL_DATAGRAM_OVERHEAD);
+        return Math.max(0, Math.min(inbox.remainingCapacity(), Math.max(1, socketPackets)));
+    }
 
-        while (running)
-            receivePacket();
+    // main receive loop, returns the files saved during the session (until FIN)
+    public List<File> receiveData() throws Exception {
 
-        byte[] full = rebuildData(); // join chunks
+        startReader();
+        completedFiles = new ArrayList<>();
 
-        if (outputFileName != null)
-            saveToFile(full, outputFileName);
+        while (running) {
+            DatagramPacket udp = inbox.poll(100, TimeUnit.MILLISECONDS);
+            if (udp != null)
+                receivePacketSafely(udp);
+            else
+                reportPartials(); // idle (e.g. waiting on a retransmission): flush throttled progress
+        }
 
-        return full;
+        closeTransfers();
+        return completedFiles;
     }
 
-    private void saveToFile(byte[] data, String filename) {
-        try {
-            // Save inside Node_Bridge/received/
-            File folder = new File("../../Node_Bridge/received");
+    /**
+     * Serve sessions back to back on this socket (a long-lived endpoint for
+     * pooled senders) until stop(). onSession gets each session's files.
+     */
+    public void serve(Consumer<List<File>> onSession) throws Exception {
+        while (!stopped) {
+            running = true;
+            List<File> files = receiveData();
+            if (!stopped && onSession != null)
+                onSession.accept(files);
+        }
+    }
 
-            if (!folder.exists())
-                folder.mkdirs();
+    // End of session: keep incomplete files for a later resume, forget the rest
+    private void closeTransfers() {
+        for (Transfer t : transfers.values()) {
+            if (!t.file.isFinished()) {
+                // keep .part + journal so the sender can resume later
+                t.file.close();
+                System.out.println("Transfer incomplete: " + t.file.getName() + " kept for resume ("
+                        + t.file.getChunks().cardinality() + "/" + t.file.getTotalChunks() + " chunks)");
+            }
+        }
+        transfers.clear();
+        pendingChunks.clear();
+    }
 
-            File file = new File(folder, filename);
+    // SYN: a new session starts at seq isn (same sender reused, or a new one)
+    private void startSession(int isn) {
+        closeTransfers();
+        expectedSeq = isn;
+        sessionIsn = isn;
+        sessionOpen = true;
+        resumeOffer = resumeOffer();
+        offeredCodec = ChunkCodec.ID_NONE;
+        codec = null;
+    }
 
-            try (FileOutputStream fos = new FileOutputStream(file)) {
-                fos.write(data);
-            }
+    // Partial files a sender may resume: it holds their data back until the RESUME slices are in
+    private byte[] resumeOffer() {
+        List<Long> ids = TransferJournal.fileIds(outputFolder);
+        if (ids.size() > MAX_RESUME_OFFER)
+            return ByteBuffer.allocate(2).putShort((short) RESUME_OFFER_ALL).array();
 
+        ByteBuffer offer = ByteBuffer.allocate(2 + 8 * ids.size()).putShort((short) ids.size());
+        for (long id : ids)
+            offer.putLong(id);
+        return offer.array();
+    }
+
+    // Rename the completed partial file into place and notify Node.js
+    private void completeFile(Transfer t) {
+        try {
+            File file = t.file.finish();
+            completedFiles.add(file);
+            Metrics.fileCompleted();
             System.out.println("Saved file to: " + file.getAbsolutePath());
 
+            if (offeredCodec != ChunkCodec.ID_NONE) {
+                String codecName = (codec != null) ? codec.name() : "none";
+                long freshBytes = t.file.getReceivedBytes() - t.file.getResumedBytes();
+                System.out.println("[Receiver] " + t.file.getName() + " " + codecName + ": " + t.wireBytes
+                        + " bytes on the wire → " + freshBytes + " bytes");
+                Logger.logCompression("RECEIVER", t.file.getName(), codecName, freshBytes, t.wireBytes);
+            }
+
             // Notify Node.js that file is ready (for preview UI)
-            Logger.logFileComplete(filename, data.length);
+            Logger.logFileComplete(t.file.getName(), t.file.getFileSize());
 
         } catch (Exception e) {
             System.out.println("File save error: " + e.getMessage());
         }
     }
 
-    // receive + process single packet
-    private void receivePacket() throws Exception {
+    /**
+     * Socket reader: queues datagrams for receivePacket() so a slow disk
+     * shows up as a shrinking advertised window instead of silent kernel
+     * drops. A full inbox drops the datagram (the sender was told so).
+     */
+    private void startReader() {
+        if (reader != null)
+            return;
 
-        byte[] buf = new byte[65536];
-        DatagramPacket udp = new DatagramPacket(buf, buf.length);
-        socket.receive(udp);
+        reader = new Thread(() -> {
+            byte[] buf = new byte[65536];
+            while (!stopped && !socket.isClosed()) { // one reader for all sessions of this socket
+                try {
+                    DatagramPacket udp = new DatagramPacket(buf, buf.length);
+                    socket.receive(udp);
+
+                    byte[] raw = java.util.Arrays.copyOf(buf, udp.getLength());
+                    if (!inbox.offer(new DatagramPacket(raw, raw.length, udp.getAddress(), udp.getPort())))
+                        Metrics.receiveBufferOverflow();
+                } catch (Exception e) {
+                    // socket closed on stop()
+                }
+            }
+        }, "receiver-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // One bad packet (unopenable .part, disk error, parse bug) is dropped, not the whole receiver;
+    // it is not ACKed, so the sender retransmits it
+    private void receivePacketSafely(DatagramPacket udp) throws Exception {
+        try {
+            receivePacket(udp);
+        } catch (IOException | RuntimeException e) {
+            Metrics.rejected();
+            System.out.println("[Receiver] Packet dropped: " + e);
+        }
+    }
 
-        senderAddress = udp.getAddress();
-        senderPort = udp.getPort();
+    // process single packet
+    private void receivePacket(DatagramPacket udp) throws Exception {
 
-        byte[] raw = java.util.Arrays.copyOf(buf, udp.getLength());
+        byte[] raw = udp.getData();
 
-        CustomPacket packet = CustomPacket.fromBytes(raw);
+        Metrics.packetReceived(raw.length);
 
-        if (!packet.isValid())
+        CustomPacket packet;
+        try {
+            packet = CustomPacket.fromBytes(raw);
+        } catch (IllegalArgumentException e) {
+            captureIncoming(raw, false);
+            Metrics.checksumFailure(); // truncated / malformed header
             return;
+        }
 
-        // metadata packet
-        if (packet.type == CustomPacket.TYPE_METADATA && packet.sequenceNumber == 0) {
+        boolean valid = packet.isValid();
+        captureIncoming(raw, valid);
+        if (!valid) {
+            Metrics.checksumFailure();
+            return;
+        }
 
-            ByteBuffer bb = ByteBuffer.wrap(packet.payload);
+        boolean fromSessionSender = udp.getAddress().equals(senderAddress) && udp.getPort() == senderPort;
 
-            int nameLen = bb.getInt();
-            byte[] nameBytes = new byte[nameLen];
-            bb.get(nameBytes);
+        // session start → reset (unless it is a retransmitted SYN of this session),
+        // echo with our window and the files we could resume
+        if (packet.type == CustomPacket.TYPE_SYN) {
+            if (!sessionOpen || packet.sequenceNumber != sessionIsn || !fromSessionSender) {
+                senderAddress = udp.getAddress();
+                senderPort = udp.getPort();
+                startSession(packet.sequenceNumber);
+            }
+
+            byte[] echo = ByteBuffer.allocate(4 + resumeOffer.length).putInt(advertisedWindow())
+                    .put(resumeOffer).array();
+            byte[] bytes = new CustomPacket(CustomPacket.TYPE_SYN, sessionIsn, echo).toBytes();
+            sendToSender(new DatagramPacket(bytes, bytes.length, senderAddress, senderPort));
+            return;
+        }
 
-            outputFileName = new String(nameBytes, StandardCharsets.UTF_8);
-            expectedFileSize = bb.getLong();
+        // an open session belongs to the sender whose SYN opened it (a dead sender's stragglers are dropped)
+        if (sessionOpen && !fromSessionSender) {
+            Metrics.rejected();
+            return;
+        }
+        if (!sessionOpen) {
+            senderAddress = udp.getAddress();
+            senderPort = udp.getPort();
+        }
 
-            int totalPayload = packet.payloadLength & 0xFFFF;
-            int remaining = totalPayload - (4 + nameLen + 8);
+        // metadata packet (seq = base seq of the file)
+        if (packet.type == CustomPacket.TYPE_METADATA && packet.sequenceNumber >= 0) {
+
+            // late metadata from an earlier session
+            if (packet.sequenceNumber < sessionIsn && !transfers.containsKey(packet.sequenceNumber))
+                return;
+
+            int baseSeq = packet.sequenceNumber;
+            Metadata meta;
+            try {
+                meta = Metadata.parse(packet.payload);
+            } catch (IllegalArgumentException e) {
+                Metrics.rejected();
+                System.out.println("Malformed metadata " + baseSeq + " → ignored: " + e.getMessage());
+                return;
+            }
 
-            byte[] firstChunk = new byte[Math.max(0, remaining)];
-            if (remaining > 0)
-                bb.get(firstChunk);
+            // a different file at a seq we already map → never mix its chunks into this one
+            Transfer t = transfers.get(baseSeq);
+            if (t != null && !t.matches(meta)) {
+                Metrics.rejected();
+                System.out.println("Metadata " + baseSeq + " for " + meta.fileName + " conflicts with "
+                        + t.file.getName() + " → ignored");
+                return;
+            }
 
-            receivedBuffer.put(0, firstChunk);
+            datagramBytes = 9 + meta.chunkSize; // sizes the window against the socket buffer
+
+            // codec negotiation: accept the offer only if we know the codec
+            offeredCodec = meta.codec;
+            codec = (offeredCodec != ChunkCodec.ID_NONE) ? ChunkCodecs.forId(offeredCodec) : null;
+
+            // first metadata for this file → open (or resume) the partial file
+            if (t != null)
+                Metrics.duplicate();
+            if (t == null) {
+                t = new Transfer(baseSeq, meta.fileId, new IncomingFile(outputFolder, meta.fileName, meta.fileSize, meta.chunkSize, meta.fileId));
+                transfers.put(baseSeq, t);
+                if (t.file.getResumedChunks() > 0)
+                    System.out.println("Resuming " + t.file.getName() + ": " + t.file.getResumedChunks() + "/"
+                            + t.file.getTotalChunks() + " chunks already on disk");
+
+                storeChunk(t, baseSeq, meta.firstChunk);
+
+                // chunks of this file that overtook its metadata
+                Iterator<Map.Entry<Integer, byte[]>> it = pendingChunks.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Integer, byte[]> e = it.next();
+                    if (t.contains(e.getKey())) {
+                        storeChunk(t, e.getKey(), e.getValue());
+                        it.remove();
+                    }
+                }
+            }
 
-            receivedBytesTotal = firstChunk.length;
+            Logger.logPacketReceived(baseSeq);
 
-            Logger.logPacketReceived(0);
+            advanceExpectedSeq();
 
-            while (receivedBuffer.containsKey(expectedSeq))
-                expectedSeq++;
+            if (t.file.getResumedChunks() > 0)
+                sendResume(t);
 
-            sendAck(expectedSeq - 1);
+            byte accepted = (codec != null) ? codec.id() : ChunkCodec.ID_NONE;
+            sendAck(expectedSeq - 1, ByteBuffer.allocate(5).put(accepted).putInt(baseSeq).array());
+
+            if (t.file.isComplete() && !t.file.isFinished())
+                completeFile(t);
+            else
+                reportPartial(t);
+            return;
+        }
+
+        // zero-window probe → current window (nothing to ACK outside a session)
+        if (packet.type == CustomPacket.TYPE_PROBE) {
+            if (sessionOpen)
+                sendAck(expectedSeq - 1);
             return;
         }
 
         // fin packet
         if (packet.type == CustomPacket.TYPE_FIN && packet.sequenceNumber == -1) {
+            // payload = first seq of the session it closes (late FIN of an earlier session → ignore)
+            if (sessionOpen && packet.payload.length >= 4 && ByteBuffer.wrap(packet.payload).getInt() != sessionIsn)
+                return;
             sendAck(-1);
+            if (!sessionOpen)
+                return; // retransmitted FIN of a session already closed (its ACK was lost)
             running = false;
+            sessionOpen = false;
             return;
         }
 
@@ -129,59 +407,255 @@ public class Receiver {
 
             int seq = packet.sequenceNumber;
 
-            if (!receivedBuffer.containsKey(seq)) {
-                receivedBuffer.put(seq, packet.payload);
-                receivedBytesTotal += packet.payload.length; // count new bytes only
-            } else {
-                receivedBuffer.put(seq, packet.payload); // overwrite if needed
+            Transfer t = transferFor(seq);
+            if (t == null && seq < expectedSeq) {
+                Metrics.duplicate(); // late packet of a finished file or an earlier session
+                return;
             }
+            if (t == null) {
+                pendingChunks.put(seq, packet.payload); // decoded once its metadata arrives
+                Logger.logPacketReceived(seq);
+                return;
+            }
+
+            if (t.file.hasChunk(seq - t.baseSeq))
+                Metrics.duplicate();
+            else if (!storeChunk(t, seq, packet.payload))
+                return; // undecodable → no ACK, sender will retransmit
 
             // ------ Progress Update ------
-            if (expectedFileSize > 0) {
-                Logger.logProgress(receivedBytesTotal, expectedFileSize);
-            }
+            Logger.logProgress(t.file.getReceivedBytes(), t.file.getFileSize());
 
             Logger.logPacketReceived(seq);
 
-            while (receivedBuffer.containsKey(expectedSeq)) {
-                expectedSeq++;
-            }
+            advanceExpectedSeq();
 
             sendAck(expectedSeq - 1);
+
+            if (t.file.isComplete() && !t.file.isFinished())
+                completeFile(t);
+            else
+                reportPartial(t);
         }
 
     }
 
+    /**
+     * FILE_PARTIAL: the prefix of "<name>.part" that is already final, so the
+     * bridge can serve (and the UI preview) a file while it streams in. Sent
+     * when the prefix grew, at most every PARTIAL_INTERVAL_MS per file.
+     */
+    private void reportPartial(Transfer t) {
+        if (Logger.getLevel() < Logger.LEVEL_SUMMARY || t.file.isFinished())
+            return;
+
+        long now = System.currentTimeMillis();
+        if (now - t.partialAt < PARTIAL_INTERVAL_MS)
+            return;
+
+        long available = t.file.getAvailableBytes();
+        if (available <= t.partialBytes)
+            return;
+
+        t.partialBytes = available;
+        t.partialAt = now;
+        Logger.logFilePartial(t.file.getName(), t.file.getPartFile().getName(), available, t.file.getFileSize());
+    }
+
+    private void reportPartials() {
+        for (Transfer t : transfers.values())
+            reportPartial(t);
+    }
+
+    /**
+     * Metadata payload, checked before anything is opened on disk:
+     * nameLen (4) | name | fileSize (8) | chunkSize (4) | fileId (8) | codecId (1) | first chunk
+     */
+    private static class Metadata {
+        static final int FIXED_BYTES = 4 + 8 + 4 + 8 + 1;
+        static final int MAX_CHUNK_SIZE = 65535; // payloadLength is 16 bits
+
+        String fileName;
+        long fileSize;
+        int chunkSize;
+        long fileId;
+        byte codec;
+        byte[] firstChunk;
+
+        static Metadata parse(byte[] payload) {
+            if (payload.length < FIXED_BYTES)
+                throw new IllegalArgumentException("payload too short (" + payload.length + " bytes)");
+
+            ByteBuffer bb = ByteBuffer.wrap(payload);
+            Metadata m = new Metadata();
+
+            int nameLen = bb.getInt();
+            if (nameLen < 1 || nameLen > payload.length - FIXED_BYTES)
+                throw new IllegalArgumentException("bad name length " + nameLen);
+            byte[] nameBytes = new byte[nameLen];
+            bb.get(nameBytes);
+            m.fileName = new String(nameBytes, StandardCharsets.UTF_8);
+
+            m.fileSize = bb.getLong();
+            m.chunkSize = bb.getInt();
+            m.fileId = bb.getLong();
+            m.codec = bb.get();
+
+            if (m.chunkSize < 1 || m.chunkSize > MAX_CHUNK_SIZE)
+                throw new IllegalArgumentException("bad chunk size " + m.chunkSize);
+            if (m.fileSize < 0 || (m.fileSize + m.chunkSize - 1) / m.chunkSize > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("bad file size " + m.fileSize);
+
+            m.firstChunk = new byte[bb.remaining()];
+            bb.get(m.firstChunk);
+            return m;
+        }
+    }
+
+    // File whose seq range holds seq (null if its metadata has not arrived yet)
+    private Transfer transferFor(int seq) {
+        Map.Entry<Integer, Transfer> e = transfers.floorEntry(seq);
+        return (e != null && e.getValue().contains(seq)) ? e.getValue() : null;
+    }
+
+    // Move the cumulative ACK point across files as far as chunks are contiguous
+    private void advanceExpectedSeq() {
+        Transfer t;
+        while ((t = transferFor(expectedSeq)) != null) {
+            int next = t.baseSeq + t.file.contiguousChunks();
+            if (next == expectedSeq)
+                break;
+            expectedSeq = next;
+        }
+    }
+
+    // Decode a chunk frame and write it to the partial file
+    private boolean storeChunk(Transfer t, int seq, byte[] payload) throws Exception {
+        byte[] chunk = decodeChunk(payload);
+        if (chunk == null)
+            return false;
+
+        if (t.file.writeChunk(seq - t.baseSeq, chunk)) {
+            t.wireBytes += payload.length;
+            Metrics.delivered(chunk.length);
+        }
+        return true;
+    }
+
+    // Unwrap a chunk frame if the sender offered a codec (null if it cannot be decoded)
+    private byte[] decodeChunk(byte[] payload) {
+        if (offeredCodec == ChunkCodec.ID_NONE)
+            return payload;
+
+        try {
+            return ChunkCompressor.decode(payload);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Undecodable chunk → ignored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Tell the sender which chunks past the cumulative ACK are already on
+     * disk. Each RESUME packet carries a bitmap slice; seq = seq of bit 0.
+     * Lost slices only cost redundant retransmissions.
+     */
+    private void sendResume(Transfer t) throws Exception {
+        BitSet have = t.file.getChunks();
+        int sliceChunks = RESUME_SLICE_BYTES * 8;
+
+        int i = have.nextSetBit(Math.max(0, expectedSeq - t.baseSeq));
+        while (i >= 0) {
+            int start = (i / 8) * 8;
+            byte[] slice = have.get(start, start + sliceChunks).toByteArray();
+
+            CustomPacket resume = new CustomPacket(CustomPacket.TYPE_RESUME, t.baseSeq + start, slice);
+            byte[] bytes = resume.toBytes();
+            sendToSender(new DatagramPacket(bytes, bytes.length, senderAddress, senderPort));
+
+            i = have.nextSetBit(start + sliceChunks);
+        }
+    }
+
     // send ack packet
     private void sendAck(int seq) throws Exception {
-        CustomPacket ack = new CustomPacket(CustomPacket.TYPE_ACK, seq, new byte[0]);
+        sendAck(seq, new byte[0]);
+    }
+
+    // ACK payload: [receive window (4)][extra], extra = [accepted codec id (1)][file base seq (4)] on metadata ACKs
+    private void sendAck(int seq, byte[] extra) throws Exception {
+        byte[] payload = ByteBuffer.allocate(4 + extra.length).putInt(advertisedWindow()).put(extra).array();
+
+        CustomPacket ack = new CustomPacket(CustomPacket.TYPE_ACK, seq, payload);
         byte[] bytes = ack.toBytes();
 
         DatagramPacket udp = new DatagramPacket(bytes, bytes.length, senderAddress, senderPort);
-        socket.send(udp);
+        sendToSender(udp);
 
+        Metrics.ackSent();
         Logger.logAckSent(seq);
     }
 
-    // join chunks into full file
-    private byte[] rebuildData() {
-        int total = receivedBuffer.values().stream().mapToInt(a -> a.length).sum();
-        byte[] full = new byte[total];
+    private void sendToSender(DatagramPacket udp) throws Exception {
+        PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.record(PacketCapture.DIR_OUT, udp.getData(), udp.getLength());
 
-        int index = 0;
-        for (int seq = 0; seq < expectedSeq; seq++) {
-            byte[] part = receivedBuffer.get(seq);
-            if (part != null) {
-                System.arraycopy(part, 0, full, index, part.length);
-                index += part.length;
-            }
-        }
+        if (emulator != null)
+            emulator.send(socket, udp, NetworkEmulator.Direction.REVERSE);
+        else
+            socket.send(udp);
+    }
+
+    // Recorded when reassembly takes the packet (overflowed datagrams never get here)
+    private void captureIncoming(byte[] raw, boolean valid) {
+        PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.record(valid ? PacketCapture.DIR_IN : PacketCapture.DIR_IN | PacketCapture.INVALID,
+                    raw, raw.length);
+    }
+
+    // Record every packet header taken from the inbox and sent back (null stops recording; the caller closes it)
+    public void setCapture(PacketCapture capture) {
+        this.capture = capture;
+    }
+
+    // Where completed files are saved (default ../../Node_Bridge/received)
+    public void setOutputFolder(File outputFolder) {
+        this.outputFolder = outputFolder;
+    }
 
-        return full;
+    // Receive buffer in packets (the largest window this receiver advertises); set before receiveData()
+    public void setReceiveBuffer(int packets) throws IOException {
+        if (packets < 1)
+            throw new IllegalArgumentException("Receive buffer must hold at least one packet");
+        this.receiveBuffer = packets;
+        this.inbox = new ArrayBlockingQueue<>(packets);
+        sizeSocketBuffer();
+    }
+
+    public int getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+    // Route ACKs through an emulator's REVERSE link (usually the Sender's)
+    public void setNetworkEmulator(NetworkEmulator emulator) {
+        this.emulator = emulator;
     }
 
     public void stop() {
+        stopped = true;
         running = false;
         socket.close();
+
+        // the port is only released once the reader leaves receive()
+        Thread r = reader;
+        if (r != null && r != Thread.currentThread()) {
+            try {
+                r.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
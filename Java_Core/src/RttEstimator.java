@@ -0,0 +1,77 @@
+/**
+ * Retransmission timeout from smoothed RTT samples (RFC 6298):
+ * RTO = SRTT + 4 * RTTVAR, clamped to [minRto, maxRto], doubled on every
+ * timeout until the next valid sample or ACK of new data.
+ *
+ * Samples and backoff come from the send loop only; the bounds may be
+ * retuned from the control listener.
+ */
+public class RttEstimator {
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final double CLOCK_GRANULARITY_MS = 1;
+
+    private volatile long minRtoMs = 1000; // RFC 6298 recommends 1 s
+    private volatile long maxRtoMs = 60000;
+
+    private double srttMs = -1; // no sample yet
+    private double rttvarMs = 0;
+    private double baseRtoMs = 1000; // initial RTO before the first sample
+    private int backoff = 0; // timeouts since the last sample
+
+    // One RTT measurement (never from a retransmitted packet, Karn)
+    public void sample(long rttNanos) {
+        double r = rttNanos / 1e6;
+        if (srttMs < 0) {
+            srttMs = r;
+            rttvarMs = r / 2;
+        } else {
+            rttvarMs = (1 - BETA) * rttvarMs + BETA * Math.abs(srttMs - r);
+            srttMs = (1 - ALPHA) * srttMs + ALPHA * r;
+        }
+        baseRtoMs = srttMs + Math.max(CLOCK_GRANULARITY_MS, 4 * rttvarMs);
+        backoff = 0;
+    }
+
+    // A retransmission timer fired → double the RTO (up to maxRto)
+    public void backoff() {
+        if (getRtoMs() < maxRtoMs)
+            backoff++;
+    }
+
+    // An ACK acknowledged new data: the path works again, drop the backoff
+    // (RFC 6298 only collapses it on a fresh sample; Linux does this too)
+    public void resetBackoff() {
+        backoff = 0;
+    }
+
+    public long getRtoMs() {
+        double rto = baseRtoMs * (1L << Math.min(backoff, 30));
+        return Math.max(minRtoMs, Math.min(maxRtoMs, (long) Math.ceil(rto)));
+    }
+
+    public double getSrttMs() {
+        return srttMs;
+    }
+
+    public double getRttvarMs() {
+        return rttvarMs;
+    }
+
+    public void setMinRtoMs(long minRtoMs) {
+        this.minRtoMs = Math.max(1, minRtoMs);
+    }
+
+    public void setMaxRtoMs(long maxRtoMs) {
+        this.maxRtoMs = Math.max(1, maxRtoMs);
+    }
+
+    public long getMinRtoMs() {
+        return minRtoMs;
+    }
+
+    public long getMaxRtoMs() {
+        return maxRtoMs;
+    }
+}
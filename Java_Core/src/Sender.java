@@ -1,12 +1,29 @@
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 public class Sender {
 
@@ -16,100 +33,378 @@ public class Sender {
 
     private WindowManager windowManager;
 
-    private long timeoutMs = 1000; // timeout in ms
-
-    private boolean running = true;
-
-    // loss simulation
-    private volatile int lossChance = 0;
+    // ACK listener → send loop hand-off (no shared lock on the window)
+    private final AckQueue ackQueue = new AckQueue(4096);
+    private final ConcurrentLinkedQueue<ResumeSlice> resumeSlices = new ConcurrentLinkedQueue<>();
+    private final AckQueue.Handler applyAck;
+    private volatile Thread sendThread; // parked while the window is full
+
+    private final RttEstimator rtt; // retransmission timeout (RFC 6298), shared with the window
+    private final int sessionId; // address on the control port
+
+    private int chunkSize = 1024; // file bytes per packet
+    private static final int MAX_CHUNK_SIZE = 60000; // payloadLength is 16 bits; leave room for framing
+    private volatile int pacingDelayMs = 30; // pause between data packets (demo: keeps UI animations visible)
+    private static final long ACK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private volatile boolean running = true;
+
+    // network impairment simulation (loss, delay, reorder ...) for both directions
+    private NetworkEmulator emulator = new NetworkEmulator(1);
+
+    // zero-window persist timer: probe the receiver until it advertises space again
+    private static final long MAX_PROBE_INTERVAL_MS = 8000;
+    private long probeIntervalMs = 0; // 0 = timer not armed
+    private long nextProbeAt = 0;
+    private int lastWindowAckSeq = -1; // ACK listener only: ignore windows from reordered older ACKs
+
+    // data phase gives up after this many RTO expiries of the oldest packet without the window moving
+    private static final int MAX_STALLED_TIMEOUTS = 8;
+    private int stalledTimeouts = 0;
+    private int stalledAt = -1; // windowStart those timeouts were counted at
+
+    // base seqs of files whose metadata ACK came in (the send loop removes them as it passes)
+    private final ConcurrentSkipListSet<Integer> metadataAcked = new ConcurrentSkipListSet<>();
+    // fileIds the receiver keeps partial files for (SYN echo); null = too many to list, any may resume
+    private volatile Set<Long> resumableFileIds = Collections.emptySet();
+    private volatile boolean finAcked = false;
+    private static final int FIN_RETRIES = 5;
+
+    // session handshake: SYN(seq = first seq of the batch), echoed by the receiver
+    private static final int SYN_RETRIES = 5;
+    private volatile int synSeq;
+    private volatile boolean synAcked = false;
+    private volatile long synAckNanos;
+
+    // packet trace of this endpoint (null = off)
+    private volatile PacketCapture capture;
+
+    // per-chunk compression (null = off, chunks sent raw)
+    private ChunkCompressor compressor;
+    private volatile int offerBase = -1; // base seq of the file whose metadata carries the current codec offer
+    private volatile int codecAnsweredBase = -1; // file whose offer was last answered (set by the ACK listener)
+
+    // chunks of the file being streamed that the receiver already has on disk (from RESUME packets,
+    // send loop only): bit i = seq presentBase + i, so the bitmap stays file-sized whatever the ISN
+    private final BitSet presentChunks = new BitSet();
+    private int presentBase, presentEnd;
+    private int skippedChunks; // this batch, for the resume summary
 
     public Sender(String receiverIp, int receiverPort, int windowSize) throws Exception {
         this.socket = new DatagramSocket();
         this.receiverAddress = InetAddress.getByName(receiverIp);
         this.receiverPort = receiverPort;
 
-        this.windowManager = new WindowManager(windowSize, 0);
+        // random first seq: a receiver tells this sender's sessions apart from an earlier sender's
+        this.windowManager = new WindowManager(windowSize, ThreadLocalRandom.current().nextInt(1 << 30));
+        this.applyAck = (ackSeq, arrivalNanos) -> {
+            Metrics.ackLatencySample(System.nanoTime() - arrivalNanos);
+            windowManager.recordAck(ackSeq, arrivalNanos);
+        };
 
-        startAckListener();
+        this.rtt = windowManager.getRttEstimator();
 
-        // Start dynamic window size listener
-        Thread controlThread = new Thread(new WindowControlListener(windowManager, this));
-        controlThread.setDaemon(true);
-        controlThread.start();
+        startAckListener();
+        Metrics.startReporter(1000);
 
+        // Runtime tuning (window, pacing, RTO, emulator ...) over the shared control port
+        this.sessionId = WindowControlListener.register(this);
+        System.out.println("[Sender] Session " + sessionId + " (control on UDP " + WindowControlListener.CONTROL_PORT
+                + ")");
     }
 
     // Public helper to send file from disk (reads bytes and calls
     // sendMetadata+sendData)
     public void sendFile(String filePath) throws Exception {
-        byte[] fileData = Files.readAllBytes(Paths.get(filePath));
-        String fileName = Paths.get(filePath).getFileName().toString();
-        sendFileBytes(fileName, fileData);
+        sendFiles(List.of(filePath));
     }
 
-    // Send metadata packet (seq=0) contains filename, filesize, and firstChunk
+    // Send one in-memory file as a single-file batch
     public void sendFileBytes(String fileName, byte[] fileData) throws Exception {
-        int chunkSize = 1024;
-        int totalChunks = (int) Math.ceil(fileData.length / (double) chunkSize);
+        sendBatch(List.of(new OutgoingFile(fileName, fileData)));
+    }
+
+    // Send several files over this session (one metadata handshake per file, one FIN at the end)
+    public void sendFiles(List<String> filePaths) throws Exception {
+        List<OutgoingFile> batch = new ArrayList<>();
+        for (String filePath : filePaths)
+            batch.add(new OutgoingFile(Paths.get(filePath)));
+        sendBatch(batch);
+    }
+
+    // Send every regular file in a directory (not recursive), in name order
+    public void sendDirectory(String dirPath) throws Exception {
+        List<String> filePaths;
+        try (Stream<Path> entries = Files.list(Paths.get(dirPath))) {
+            filePaths = entries.filter(Files::isRegularFile)
+                    .sorted()
+                    .map(Path::toString)
+                    .collect(Collectors.toList());
+        }
+        System.out.println("[Sender] Sending directory " + dirPath + " (" + filePaths.size() + " files)");
+        sendFiles(filePaths);
+    }
+
+    /**
+     * Streams a batch of files through one sliding window.
+     *
+     * Files share one sequence space: a file with N chunks takes seqs
+     * base .. base+N-1, where seq=base is its metadata (carrying chunk 0).
+     * The next file's metadata goes out as soon as the window allows it, while
+     * the previous file's tail may still be unACKed.
+     *
+     * A Sender can run any number of batches (one at a time); sockets, threads,
+     * RTT and window state carry over from one to the next.
+     */
+    private synchronized void sendBatch(List<OutgoingFile> batch) throws Exception {
+        int chunkSize = this.chunkSize;
+        skippedChunks = 0;
+
+        sendThread = Thread.currentThread();
+        metadataAcked.clear();
+
+        int isn = windowManager.getNextSeqToSend();
+        handshake(isn);
+        stalledTimeouts = 0;
+
+        int base = isn;
+        for (OutgoingFile file : batch) {
+            file.open();
+            try {
+                base = streamFile(file, base, chunkSize);
+            } finally {
+                file.close();
+            }
+        }
+
+        // Drain: wait until the last file's tail is ACKed
+        applyAcks();
+        while (windowManager.hasUnacked()) {
+            checkTimeouts();
+            waitForAcks();
+        }
+
+        sendFinPacket(isn);
+        System.out.println("All file data sent successfully (" + batch.size() + " file"
+                + (batch.size() == 1 ? "" : "s") + ").");
+        if (skippedChunks > 0)
+            System.out.println("[Sender] Resumed transfer: skipped " + skippedChunks + " chunks already at receiver");
+
+        System.out.println("[Sender] " + Metrics.summary());
+        Logger.logMetrics(Metrics.snapshotJson());
+    }
+
+    // One file of a batch at seqs base .. base+N-1; returns the next file's base
+    private int streamFile(OutgoingFile file, int base, int chunkSize) throws Exception {
+        String fileName = file.name;
+        long fileSize = file.size;
+        long chunks = Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+        if (base + chunks > Integer.MAX_VALUE)
+            throw new IOException(fileName + ": " + chunks + " chunks of " + chunkSize
+                    + " bytes do not fit the sequence space (use a larger chunk size)");
+        int totalChunks = (int) chunks;
+
+        // every file's metadata offers the codec anew: this receiver may not be the one that accepted it
+        if (compressor != null) {
+            compressor.resetStats();
+            compressor.setAccepted(false);
+        }
+        offerBase = base;
+
+        // file identity for the receiver's resume journal
+        long fileId = file.fileId();
+
+        presentChunks.clear();
+        presentBase = base;
+        presentEnd = base + totalChunks;
 
         // Prepare first chunk
-        int firstChunkLen = Math.min(chunkSize, fileData.length);
-        byte[] firstChunk = new byte[firstChunkLen];
-        System.arraycopy(fileData, 0, firstChunk, 0, firstChunkLen);
+        byte[] firstChunk = file.read(0, (int) Math.min(chunkSize, fileSize));
+
+        // Wait for room for the metadata (previous file's tail may still be in flight)
+        while (!windowManager.canSend(base)) {
+            checkTimeouts();
+            waitForAcks();
+        }
+
+        // Send metadata (seq=base) containing filename, filesize, codec offer and firstChunk
+        sendMetadata(base, fileName, fileSize, chunkSize, fileId, encodeChunk(firstChunk));
 
-        // Send metadata (seq=0) containing filename, filesize, and firstChunk
-        sendMetadata(fileName, fileData.length, firstChunk);
+        // A file the receiver has part of: hold the data back until its metadata is ACKed, so
+        // the RESUME slices arrive first and chunks already on disk are not sent (one RTT).
+        // A cumulative ACK past base also ends the wait (the metadata ACK itself was lost).
+        boolean resuming = totalChunks > 1 && mayResume(fileId);
+        while (resuming && !metadataAcked.contains(base) && windowManager.getWindowStart() <= base) {
+            checkTimeouts();
+            waitForAcks();
+        }
+        metadataAcked.headSet(base, true).clear();
 
-        // Now send remaining chunks as seq = 1 .. totalChunks-1 (because chunk 0
+        // Now send remaining chunks as seq = base+1 .. base+totalChunks-1 (because chunk 0
         // embedded)
-        int seq = 1;
-        while (seq < totalChunks + 0 || !windowManager.getUnackedSeqs().isEmpty()) {
-            while (seq < totalChunks && windowManager.canSend(seq)) {
-                int chunkIndex = seq; // because chunk 0 was in metadata
-                int start = chunkIndex * chunkSize;
-                int end = Math.min(start + chunkSize, fileData.length);
+        int seq = base + 1;
+        int end = base + totalChunks;
+        while (seq < end) {
+            applyAcks();
+            while (seq < end && windowManager.canSend(seq)) {
+                // resumed transfer: receiver already has this chunk
+                if (seq < windowManager.getWindowStart() || isPresentAtReceiver(seq)) {
+                    seq++;
+                    skippedChunks++;
+                    continue;
+                }
 
-                byte[] payload = new byte[end - start];
-                System.arraycopy(fileData, start, payload, 0, payload.length);
+                int chunkIndex = seq - base; // because chunk 0 was in metadata
+                long start = (long) chunkIndex * chunkSize;
+                byte[] payload = file.read(start, (int) Math.min(chunkSize, fileSize - start));
 
-                sendPacket(seq, payload);
+                sendPacket(seq, encodeChunk(payload));
                 seq++;
 
                 // Demo delay so UI animations are visible
-                Thread.sleep(30);
+                if (pacingDelayMs > 0)
+                    Thread.sleep(pacingDelayMs);
+                applyAcks();
+            }
+            if (seq < end) {
+                checkTimeouts();
+                waitForAcks();
             }
-            checkTimeouts();
-            Thread.sleep(10);
         }
 
-        sendFinPacket();
-        running = false;
-        System.out.println("All file data sent successfully.");
+        if (compressor != null) {
+            System.out.println("[Sender] " + fileName + " " + compressor.getCodec().name()
+                    + (compressor.isAccepted() ? "" : (codecAnsweredBase == base) ? " (not accepted by receiver)"
+                            : " (no answer yet, sent stored)")
+                    + ": " + compressor.getOriginalBytes() + " bytes → " + compressor.getWireBytes()
+                    + " on the wire (" + compressor.getEncodedChunks() + " encoded, "
+                    + compressor.getStoredChunks() + " stored chunks)");
+            Logger.logCompression("SENDER", fileName, compressor.getCodec().name(),
+                    compressor.getOriginalBytes(), compressor.getWireBytes());
+        }
+
+        presentChunks.clear();
+        presentEnd = presentBase; // late slices for this file are ignored
+        return end;
+    }
+
+    /**
+     * A file queued for a batch. Disk files are opened when their turn comes
+     * and read one chunk at a time at long offsets, so their size is not
+     * limited by the heap or by int indexing.
+     */
+    private static class OutgoingFile {
+        private static final int ID_SAMPLE_BYTES = 64 * 1024;
+
+        final String name;
+        final Path path;
+        final byte[] data;
+        long size;
+        private FileChannel channel;
+
+        OutgoingFile(Path path) {
+            this.name = path.getFileName().toString();
+            this.path = path;
+            this.data = null;
+        }
+
+        OutgoingFile(String name, byte[] data) {
+            this.name = name;
+            this.path = null;
+            this.data = data;
+        }
+
+        void open() throws IOException {
+            if (data != null) {
+                size = data.length;
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                size = channel.size();
+            }
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            byte[] chunk = new byte[length];
+            if (data != null) {
+                System.arraycopy(data, (int) offset, chunk, 0, length);
+                return chunk;
+            }
+
+            ByteBuffer bb = ByteBuffer.wrap(chunk);
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, offset + bb.position()) < 0)
+                    throw new IOException(name + " shrank while it was being sent");
+            }
+            return chunk;
+        }
+
+        /**
+         * Identity for the receiver's resume journal, cheap at any size: CRC
+         * of the size, modification time and the first and last 64 KB (a
+         * file changed in between gets a new id and restarts from scratch).
+         * In-memory data is hashed whole.
+         */
+        long fileId() throws IOException {
+            CRC32 crc = new CRC32();
+            if (data != null) {
+                crc.update(data);
+                return crc.getValue();
+            }
+
+            crc.update(ByteBuffer.allocate(16).putLong(size)
+                    .putLong(Files.getLastModifiedTime(path).toMillis()).array());
+            int head = (int) Math.min(ID_SAMPLE_BYTES, size);
+            crc.update(read(0, head));
+            long tailStart = Math.max(head, size - ID_SAMPLE_BYTES);
+            crc.update(read(tailStart, (int) (size - tailStart)));
+            return crc.getValue();
+        }
+
+        void close() {
+            if (channel == null)
+                return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("[Sender] Close failed for " + name + ": " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    // Frame a chunk for the negotiated codec (raw chunk if compression is off)
+    private byte[] encodeChunk(byte[] chunk) {
+        return (compressor != null) ? compressor.encode(chunk) : chunk;
     }
 
-    // Builds and sends metadata packet (seq=0, TYPE_METADATA)
-    private void sendMetadata(String fileName, long fileSize, byte[] firstChunk) throws Exception {
+    // Builds and sends metadata packet (seq=base of the file, TYPE_METADATA)
+    private void sendMetadata(int seq, String fileName, long fileSize, int chunkSize, long fileId, byte[] firstChunk)
+            throws Exception {
         byte[] fileNameBytes = fileName.getBytes("UTF-8");
 
-        // Layout: int nameLen (4) | nameBytes | long fileSize (8) | firstChunk bytes
-        int metaLen = 4 + fileNameBytes.length + 8 + (firstChunk != null ? firstChunk.length : 0);
+        // Layout: int nameLen (4) | nameBytes | long fileSize (8) | int chunkSize (4) | long fileId (8)
+        // | codecId (1) | firstChunk bytes
+        int metaLen = 4 + fileNameBytes.length + 8 + 4 + 8 + 1 + (firstChunk != null ? firstChunk.length : 0);
         ByteBuffer buffer = ByteBuffer.allocate(metaLen);
         buffer.putInt(fileNameBytes.length);
         buffer.put(fileNameBytes);
         buffer.putLong(fileSize);
+        buffer.putInt(chunkSize);
+        buffer.putLong(fileId);
+        buffer.put(compressor != null ? compressor.getCodec().id() : ChunkCodec.ID_NONE);
         if (firstChunk != null)
             buffer.put(firstChunk);
 
         byte[] metadataPayload = buffer.array();
 
-        CustomPacket packet = new CustomPacket(CustomPacket.TYPE_METADATA, 0, metadataPayload);
+        CustomPacket packet = new CustomPacket(CustomPacket.TYPE_METADATA, seq, metadataPayload);
         byte[] packetBytes = packet.toBytes();
 
-        DatagramPacket udp = new DatagramPacket(packetBytes, packetBytes.length, receiverAddress, receiverPort);
-        socket.send(udp);
+        transmit(packetBytes);
+        Metrics.packetSent(packetBytes.length);
 
-        windowManager.recordSent(0, packetBytes);
-        Logger.logPacketSent(0, windowManager.getWindowStart(), windowManager.getWindowEnd());
+        windowManager.recordSent(seq, packetBytes);
+        Logger.logPacketSent(seq, windowManager.getWindowStart(), windowManager.getWindowEnd());
     }
 
     // // Main method: splits data and sends using sliding window
@@ -158,27 +453,76 @@ public class Sender {
         // 2. Log to UI (yellow SENT)
         Logger.logPacketSent(seq, windowManager.getWindowStart(), windowManager.getWindowEnd());
 
-        // 3. Simulate "network drop"
-        if (lossChance > 0 && Math.random() * 100 < lossChance) {
-            System.out.println("⚠️ [SIMULATION] Packet " + seq + " lost in transit!");
-            return; // skip socket.send()
+        // 3. Send through the (possibly impaired) link
+        transmit(packetBytes);
+        Metrics.packetSent(packetBytes.length);
+    }
+
+    // Every outgoing datagram goes through here; the capture sees it as sent,
+    // before the emulator drops or delays it
+    private void transmit(byte[] packetBytes) throws Exception {
+        PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.record(PacketCapture.DIR_OUT, packetBytes, packetBytes.length);
+
+        emulator.send(socket, new DatagramPacket(packetBytes, packetBytes.length, receiverAddress, receiverPort),
+                NetworkEmulator.Direction.FORWARD);
+    }
+
+    /**
+     * Open a receiver session starting at seq isn: SYN until it is echoed.
+     * Replaces a fixed startup sleep (a receiver that is still starting just
+     * costs a retry) and gives the receive window and a first RTT sample
+     * before any data goes out.
+     */
+    private void handshake(int isn) throws Exception {
+        byte[] synBytes = new CustomPacket(CustomPacket.TYPE_SYN, isn, new byte[0]).toBytes();
+
+        synSeq = isn;
+        synAcked = false;
+        long firstSentAt = 0;
+        int attempt = 0;
+        for (; attempt < SYN_RETRIES && !synAcked; attempt++) {
+            if (attempt == 0)
+                firstSentAt = System.nanoTime();
+            transmit(synBytes);
+            Metrics.packetSent(synBytes.length);
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rtt.getRtoMs());
+            while (!synAcked && System.nanoTime() < deadline)
+                LockSupport.parkNanos(this, ACK_WAIT_NANOS);
+            if (!synAcked)
+                rtt.backoff();
         }
 
-        // 4. Actually send if not lost
-        DatagramPacket udpPacket = new DatagramPacket(packetBytes, packetBytes.length, receiverAddress, receiverPort);
+        if (!synAcked)
+            throw new IOException("No answer from receiver " + receiverAddress.getHostAddress() + ":" + receiverPort
+                    + " after " + SYN_RETRIES + " SYNs");
 
-        socket.send(udpPacket);
+        rtt.resetBackoff();
+        if (attempt == 1)
+            rtt.sample(synAckNanos - firstSentAt); // unambiguous: only one SYN was sent (Karn)
     }
 
-    // Sends FIN packet to notify receiver
-    private void sendFinPacket() throws Exception {
-        CustomPacket fin = new CustomPacket(CustomPacket.TYPE_FIN, -1, new byte[0]);
+    // Sends FIN packet to notify receiver (resent until ACKed, FIN can be lost too).
+    // Carries the session's first seq so a late duplicate cannot end a newer session.
+    private void sendFinPacket(int isn) throws Exception {
+        CustomPacket fin = new CustomPacket(CustomPacket.TYPE_FIN, -1, ByteBuffer.allocate(4).putInt(isn).array());
         byte[] finBytes = fin.toBytes();
 
-        DatagramPacket udpPacket = new DatagramPacket(finBytes, finBytes.length, receiverAddress, receiverPort);
-        socket.send(udpPacket);
+        finAcked = false;
+        for (int attempt = 0; attempt < FIN_RETRIES && !finAcked; attempt++) {
+            transmit(finBytes);
+
+            System.out.println("FIN packet sent to receiver.");
 
-        System.out.println("FIN packet sent to receiver.");
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rtt.getRtoMs());
+            while (!finAcked && System.nanoTime() < deadline)
+                LockSupport.parkNanos(this, ACK_WAIT_NANOS);
+        }
+
+        if (!finAcked)
+            System.out.println("No ACK for FIN after " + FIN_RETRIES + " attempts, closing anyway.");
     }
 
     // Starts ACK listener thread
@@ -200,7 +544,7 @@ public class Sender {
 
     // Receives and processes ACK packets
     private void listenForAck() throws Exception {
-        byte[] buffer = new byte[64];
+        byte[] buffer = new byte[2048]; // ACKs are tiny, RESUME slices up to ~1 KB
         DatagramPacket udpPacket = new DatagramPacket(buffer, buffer.length);
         socket.receive(udpPacket);
 
@@ -210,6 +554,7 @@ public class Sender {
         try {
             ackPacket = CustomPacket.fromBytes(receivedBytes);
         } catch (IllegalArgumentException ex) {
+            captureIncoming(receivedBytes, false);
             System.out.println("Malformed ACK packet received -> ignored: " + ex.getMessage());
             return;
         }
@@ -220,32 +565,175 @@ public class Sender {
             // but we support TYPE_FIN being acked with TYPE_ACK if needed.
         }
 
-        if (!ackPacket.isValid()) {
+        boolean valid = ackPacket.isValid();
+        captureIncoming(receivedBytes, valid);
+        if (!valid) {
             System.out.println("Received corrupted ACK → ignored");
             return;
         }
 
+        if (ackPacket.type == CustomPacket.TYPE_SYN) {
+            if (ackPacket.sequenceNumber != synSeq || synAcked)
+                return; // stale or duplicate
+            synAckNanos = System.nanoTime();
+            if (ackPacket.payload.length >= 4) {
+                lastWindowAckSeq = synSeq - 1;
+                updateReceiveWindow(ByteBuffer.wrap(ackPacket.payload).getInt());
+            }
+            resumableFileIds = parseResumeOffer(ackPacket.payload);
+            synAcked = true;
+            wakeSender();
+            return;
+        }
+
+        if (ackPacket.type == CustomPacket.TYPE_RESUME) {
+            resumeSlices.add(new ResumeSlice(ackPacket.sequenceNumber, BitSet.valueOf(ackPacket.payload)));
+            wakeSender();
+            return;
+        }
+
         int ackSeq = ackPacket.sequenceNumber;
 
+        // ACK payload: [receive window (4)], metadata ACKs add [accepted codec (1)]
+        if (ackPacket.payload.length >= 4 && ackSeq >= lastWindowAckSeq) {
+            lastWindowAckSeq = ackSeq;
+            updateReceiveWindow(ByteBuffer.wrap(ackPacket.payload).getInt());
+        }
+
+        // Metadata ACK: [accepted codec (1)][file base seq (4)] after the window
+        if (ackPacket.payload.length >= 9) {
+            int fileBase = ByteBuffer.wrap(ackPacket.payload, 5, 4).getInt();
+
+            // the codec answer holds for that file only (a late ACK of an earlier file is ignored)
+            ChunkCompressor compressor = this.compressor;
+            if (compressor != null && fileBase == offerBase && fileBase != codecAnsweredBase) {
+                codecAnsweredBase = fileBase;
+                boolean accepted = ackPacket.payload[4] == compressor.getCodec().id();
+                compressor.setAccepted(accepted);
+                System.out.println("[Sender] Receiver " + (accepted ? "accepted" : "declined")
+                        + " " + compressor.getCodec().name() + " compression");
+            }
+
+            // its data may go out now (RESUME slices came first)
+            metadataAcked.add(fileBase);
+            wakeSender();
+        }
+
         if (ackSeq == -1) {
+            if (finAcked)
+                return; // duplicate
+            finAcked = true;
+            wakeSender();
             System.out.println("Receiver ACKed FIN.");
             Logger.logAckReceived(-1);
             return;
         }
 
-        windowManager.recordAck(ackSeq);
+        // hand over to the send loop; it applies the ACK to the window
+        ackQueue.offer(ackSeq, System.nanoTime());
+        Metrics.ackReceived();
+        wakeSender();
+
         Logger.logAckReceived(ackSeq);
     }
 
+    // SYN echo after the window: [count(2)][fileId(8) ...], count RESUME_OFFER_ALL = not listed
+    private static Set<Long> parseResumeOffer(byte[] payload) {
+        if (payload.length < 6)
+            return Collections.emptySet();
+
+        ByteBuffer bb = ByteBuffer.wrap(payload, 4, payload.length - 4);
+        int count = bb.getShort() & 0xFFFF;
+        if (count == Receiver.RESUME_OFFER_ALL)
+            return null;
+
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < count && bb.remaining() >= 8; i++)
+            ids.add(bb.getLong());
+        return ids;
+    }
+
+    private boolean mayResume(long fileId) {
+        Set<Long> ids = resumableFileIds;
+        return ids == null || ids.contains(fileId);
+    }
+
+    private void captureIncoming(byte[] packetBytes, boolean valid) {
+        PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.record(valid ? PacketCapture.DIR_IN : PacketCapture.DIR_IN | PacketCapture.INVALID,
+                    packetBytes, packetBytes.length);
+    }
+
+    private void updateReceiveWindow(int rwnd) {
+        int previous = windowManager.getReceiveWindow();
+        windowManager.setReceiveWindow(rwnd);
+        Metrics.receiveWindow(rwnd);
+
+        if (rwnd == 0 && previous != 0) {
+            Metrics.zeroWindow();
+            System.out.println("[Sender] Receiver advertised a zero window → pausing");
+        } else if (rwnd > 0 && previous == 0) {
+            System.out.println("[Sender] Receiver window reopened (" + rwnd + " packets)");
+        }
+    }
+
+    private void wakeSender() {
+        Thread t = sendThread;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    // Apply ACKs and RESUME slices published by the ACK listener (send loop only)
+    private void applyAcks() {
+        ResumeSlice slice;
+        while ((slice = resumeSlices.poll()) != null) {
+            for (int i = slice.bits.nextSetBit(0); i >= 0; i = slice.bits.nextSetBit(i + 1)) {
+                int seq = slice.firstSeq + i;
+                if (seq >= presentBase && seq < presentEnd)
+                    presentChunks.set(seq - presentBase);
+            }
+        }
+
+        ackQueue.drain(applyAck);
+    }
+
+    // Park until an ACK arrives (or ACK_WAIT_NANOS passes), then apply what came in
+    private void waitForAcks() {
+        if (ackQueue.isEmpty() && resumeSlices.isEmpty())
+            LockSupport.parkNanos(this, ACK_WAIT_NANOS);
+        applyAcks();
+    }
+
+    // RESUME slice: bit i = seq (firstSeq + i) is on the receiver's disk
+    private static class ResumeSlice {
+        final int firstSeq;
+        final BitSet bits;
+
+        ResumeSlice(int firstSeq, BitSet bits) {
+            this.firstSeq = firstSeq;
+            this.bits = bits;
+        }
+    }
+
+    private boolean isPresentAtReceiver(int seq) {
+        return seq >= presentBase && seq < presentEnd && presentChunks.get(seq - presentBase);
+    }
+
     // Checks for timeouts and retransmits if needed
     private void checkTimeouts() throws Exception {
+        applyAcks();
+        checkZeroWindow();
+
         List<Integer> pending = windowManager.getUnackedSeqs();
         long now = System.currentTimeMillis();
+        long rto = rtt.getRtoMs();
+        boolean timedOut = false;
 
         for (int seq : pending) {
             Long lastSend = windowManager.getLastSendTime(seq);
 
-            if (lastSend != null && now - lastSend >= timeoutMs) {
+            if (lastSend != null && now - lastSend >= rto) {
 
                 // Retrieve packet safely
                 Object packetObj = windowManager.getPacket(seq);
@@ -256,26 +744,122 @@ public class Sender {
 
                     byte[] packetBytes = (byte[]) packetObj;
 
-                    DatagramPacket udpPacket = new DatagramPacket(
-                            packetBytes, packetBytes.length,
-                            receiverAddress, receiverPort);
-                    socket.send(udpPacket);
+                    transmit(packetBytes);
+                    Metrics.retransmitted(packetBytes.length);
 
                     windowManager.updateSendTimestamp(seq);
                     Logger.logRetransmission(seq);
+                    if (seq == windowManager.getWindowStart())
+                        timedOut = true;
                 }
             }
         }
+
+        // back off when the oldest packet's timer fires (RFC 6298's single timer), not per packet
+        if (timedOut) {
+            rtt.backoff();
+
+            // a receiver that went away must not keep us retransmitting forever (SYN and FIN are capped too)
+            int start = windowManager.getWindowStart();
+            stalledTimeouts = (start == stalledAt) ? stalledTimeouts + 1 : 1;
+            stalledAt = start;
+            if (stalledTimeouts >= MAX_STALLED_TIMEOUTS) {
+                close();
+                throw new IOException("Receiver stopped acknowledging: seq " + start + " unACKed after "
+                        + MAX_STALLED_TIMEOUTS + " timeouts");
+            }
+        }
+    }
+
+    /**
+     * Persist timer. With a zero window and nothing in flight no ACK would
+     * ever arrive to reopen it (a lost window update would stall us), so
+     * probe after one RTO, backing off exponentially to MAX_PROBE_INTERVAL_MS.
+     */
+    private void checkZeroWindow() throws Exception {
+        if (windowManager.getReceiveWindow() > 0 || windowManager.hasUnacked()) {
+            probeIntervalMs = 0;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (probeIntervalMs == 0) {
+            probeIntervalMs = rtt.getRtoMs();
+            nextProbeAt = now + probeIntervalMs;
+            return;
+        }
+        if (now < nextProbeAt)
+            return;
+
+        byte[] probeBytes = new CustomPacket(CustomPacket.TYPE_PROBE, windowManager.getWindowStart(), new byte[0])
+                .toBytes();
+        transmit(probeBytes);
+        Metrics.windowProbe();
+        System.out.println("[Sender] Zero-window probe (next in " + Math.min(probeIntervalMs * 2,
+                MAX_PROBE_INTERVAL_MS) + " ms)");
+
+        probeIntervalMs = Math.min(probeIntervalMs * 2, MAX_PROBE_INTERVAL_MS);
+        nextProbeAt = now + probeIntervalMs;
     }
 
-    // Set simulated packet loss chance (0-100%)
-    public synchronized void setLossChance(int chance) {
-        this.lossChance = chance;
+    // Set simulated packet loss chance (0-100%) on the data direction
+    public void setLossChance(int chance) {
+        emulator.forward().setLoss(chance / 100.0);
         System.out.println("[Sender] Simulated Packet Loss = " + chance + "%");
     }
 
+    // Emulator shared with the Receiver (it impairs the ACK direction)
+    public NetworkEmulator getNetworkEmulator() {
+        return emulator;
+    }
+
+    public void setNetworkEmulator(NetworkEmulator emulator) {
+        this.emulator = emulator;
+    }
+
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("Window size must be at least 1 packet");
+        windowManager.setWindowSize(windowSize);
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rtt;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunk size must be 1.." + MAX_CHUNK_SIZE + " bytes");
+        this.chunkSize = chunkSize;
+    }
+
+    // 0 = send as fast as the window allows
+    public void setPacingDelayMs(int pacingDelayMs) {
+        this.pacingDelayMs = Math.max(0, pacingDelayMs);
+    }
+
+    // Offer a chunk codec in the next metadata handshake (null turns compression off)
+    public void setCompression(ChunkCodec codec) {
+        this.compressor = (codec != null) ? new ChunkCompressor(codec) : null;
+    }
+
+    // Record every packet header sent and received (null stops recording; the caller closes it)
+    public void setCapture(PacketCapture capture) {
+        this.capture = capture;
+    }
+
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
     public void close() {
         running = false;
+        WindowControlListener.unregister(this);
         socket.close();
+        emulator.close();
     }
 }
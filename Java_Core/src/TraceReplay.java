@@ -0,0 +1,200 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Offline replay of a PacketCapture trace, as fast as the CPU allows, for
+ * analysing a recorded transfer and for regression benchmarks of the window
+ * logic without sockets, pacing or timers.
+ *
+ * java TraceReplay trace.nvtrace [--window=64] [--rto-min=1000] [--repeat=20]
+ *
+ * Sender trace: the DATA/METADATA it sent and the ACKs it got drive a fresh
+ * WindowManager, with the trace's timestamps on the RTT clock, so RTT
+ * samples, RTO and window movement come out as they did live.
+ *
+ * Receiver trace: the DATA/METADATA it took from its inbox drive the
+ * cumulative-ACK rule (first missing seq of the session), and every ACK it
+ * sent is checked against it. A trace holds headers only, so chunks are not
+ * decoded or written. The ACK answering a metadata packet may run ahead of
+ * the rule (chunks already on disk, resume); any other ACK ahead of it is
+ * counted in acksAhead and not followed. An ACK behind it means an
+ * undecodable chunk.
+ *
+ * Prints one JSON line; replayNsPerPacket is the best of --repeat runs.
+ */
+public class TraceReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.out.println("Usage: java TraceReplay <trace> [--window=64] [--rto-min=1000] [--repeat=20]");
+            return;
+        }
+
+        Map<String, String> opts = Benchmark.parseArgs(Arrays.copyOfRange(args, 1, args.length));
+        int window = Integer.parseInt(opts.getOrDefault("window", "64"));
+        long rtoMinMs = Long.parseLong(opts.getOrDefault("rto-min", "1000"));
+        int repeat = Math.max(1, Integer.parseInt(opts.getOrDefault("repeat", "20")));
+
+        PacketCapture.Trace trace = PacketCapture.read(args[0]);
+        boolean sender = trace.side == PacketCapture.SIDE_SENDER;
+
+        Logger.setLevel(Logger.LEVEL_OFF);
+        Metrics.reset();
+
+        // first run gives the report, the rest only time the loop
+        String report = sender ? replaySender(trace, window, rtoMinMs) : replayReceiver(trace);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < repeat; i++) {
+            long start = System.nanoTime();
+            if (sender)
+                replaySender(trace, window, rtoMinMs);
+            else
+                replayReceiver(trace);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        long durationNanos = (trace.count > 0) ? trace.nanos[trace.count - 1] - trace.nanos[0] : 0;
+        System.out.println(String.format(Locale.ROOT,
+                "{\"trace\":\"%s\",\"side\":\"%s\",\"records\":%d,\"tracedMs\":%.1f,%s,"
+                        + "\"replayNsPerPacket\":%.1f,\"replayPacketsPerSec\":%.0f}",
+                args[0].replace("\\", "\\\\").replace("\"", "\\\""), sender ? "sender" : "receiver",
+                trace.count, durationNanos / 1e6, report,
+                best / (double) Math.max(1, trace.count), trace.count / Math.max(1e-9, best / 1e9)));
+    }
+
+    // Sender side: its packets and ACKs through a WindowManager
+    private static String replaySender(PacketCapture.Trace trace, int window, long rtoMinMs) {
+        int isn = 0;
+        for (int i = 0; i < trace.count; i++) {
+            if ((trace.isOutgoing(i) && isSegment(trace.type[i])) || trace.type[i] == CustomPacket.TYPE_SYN) {
+                isn = trace.seq[i];
+                break;
+            }
+        }
+
+        WindowManager windowManager = new WindowManager(window, isn);
+        windowManager.setReceiveWindow(Integer.MAX_VALUE); // not in the trace; replay follows what was sent
+        windowManager.getRttEstimator().setMinRtoMs(rtoMinMs);
+        BitSet sent = new BitSet();
+        long packets = 0, retransmits = 0, acks = 0, dupAcks = 0, invalid = 0;
+        int maxInFlight = 0;
+
+        for (int i = 0; i < trace.count; i++) {
+            if (!trace.isValid(i)) {
+                invalid++;
+                continue;
+            }
+
+            int seq = trace.seq[i];
+            if (trace.isOutgoing(i)) {
+                if (!isSegment(trace.type[i]) || seq < isn)
+                    continue;
+                if (sent.get(seq - isn)) {
+                    retransmits++;
+                    if (windowManager.getPacket(seq) != null)
+                        windowManager.updateSendTimestamp(seq, trace.nanos[i]);
+                } else {
+                    sent.set(seq - isn);
+                    packets++;
+                    windowManager.recordSent(seq, Boolean.TRUE, trace.nanos[i]);
+                }
+                maxInFlight = Math.max(maxInFlight, windowManager.getNextSeqToSend() - windowManager.getWindowStart());
+            } else if (trace.type[i] == CustomPacket.TYPE_ACK && seq >= 0) {
+                acks++;
+                int before = windowManager.getWindowStart();
+                windowManager.recordAck(seq, trace.nanos[i]);
+                if (windowManager.getWindowStart() == before)
+                    dupAcks++;
+            }
+        }
+
+        RttEstimator rtt = windowManager.getRttEstimator();
+        return String.format(Locale.ROOT, "\"packets\":%d,\"retransmits\":%d,\"retransmitRatio\":%.4f,"
+                + "\"acks\":%d,\"dupAcks\":%d,\"invalid\":%d,\"maxInFlight\":%d,\"windowStart\":%d,"
+                + "\"unacked\":%b,\"srttMs\":%.3f,\"rtoMs\":%d,\"rttUs\":%s",
+                packets, retransmits, (packets == 0) ? 0.0 : retransmits / (double) (packets + retransmits), acks, dupAcks,
+                invalid, maxInFlight, windowManager.getWindowStart(), windowManager.hasUnacked(),
+                rtt.getSrttMs(), rtt.getRtoMs(), Metrics.getRtt().toJson());
+    }
+
+    // Receiver side: cumulative ACK point over the session's seq space, checked against the ACKs sent
+    private static String replayReceiver(PacketCapture.Trace trace) {
+        BitSet have = new BitSet(); // bit i = seq isn + i arrived
+        int isn = 0, expectedSeq = 0, highest = -1;
+        boolean open = false;
+        boolean metadataAck = false; // next ACK answers a metadata packet
+        long sessions = 0, packets = 0, duplicates = 0, outOfOrder = 0, invalid = 0;
+        long acks = 0, resumedSeqs = 0, acksAhead = 0, acksBehind = 0;
+        int maxReorder = 0;
+
+        for (int i = 0; i < trace.count; i++) {
+            if (!trace.isValid(i)) {
+                invalid++;
+                continue;
+            }
+
+            int seq = trace.seq[i];
+            byte type = trace.type[i];
+
+            if (trace.isOutgoing(i)) {
+                if (type != CustomPacket.TYPE_ACK || seq < 0)
+                    continue;
+                acks++;
+                if (seq + 1 > expectedSeq && open && metadataAck) {
+                    // metadata ACK past our point: those chunks were on disk already
+                    resumedSeqs += seq + 1 - expectedSeq;
+                    have.set(expectedSeq - isn, seq + 1 - isn);
+                    expectedSeq = isn + have.nextClearBit(seq + 1 - isn);
+                } else if (seq + 1 > expectedSeq) {
+                    acksAhead++;
+                } else if (seq + 1 < expectedSeq) {
+                    acksBehind++;
+                }
+                metadataAck = false;
+                continue;
+            }
+
+            if (type == CustomPacket.TYPE_SYN) {
+                if (!open || seq != isn) {
+                    isn = seq;
+                    expectedSeq = seq;
+                    highest = seq - 1;
+                    have.clear();
+                    sessions++;
+                }
+                open = true;
+            } else if (type == CustomPacket.TYPE_FIN) {
+                open = false;
+            } else if (isSegment(type)) {
+                if (type == CustomPacket.TYPE_METADATA)
+                    metadataAck = true;
+                if (!open || seq < isn || have.get(seq - isn)) {
+                    duplicates++;
+                    continue;
+                }
+                packets++;
+                have.set(seq - isn);
+                if (seq > expectedSeq)
+                    outOfOrder++;
+                if (seq < highest)
+                    maxReorder = Math.max(maxReorder, highest - seq);
+                highest = Math.max(highest, seq);
+                if (seq == expectedSeq)
+                    expectedSeq = isn + have.nextClearBit(seq - isn);
+            }
+        }
+
+        return String.format(Locale.ROOT, "\"sessions\":%d,\"packets\":%d,\"duplicates\":%d,\"invalid\":%d,"
+                + "\"outOfOrder\":%d,\"maxReorderDistance\":%d,\"acks\":%d,\"resumedSeqs\":%d,\"acksAhead\":%d,"
+                + "\"acksBehind\":%d,\"expectedSeq\":%d",
+                sessions, packets, duplicates, invalid, outOfOrder, maxReorder, acks, resumedSeqs, acksAhead,
+                acksBehind, expectedSeq);
+    }
+
+    private static boolean isSegment(byte type) {
+        return type == CustomPacket.TYPE_DATA || type == CustomPacket.TYPE_METADATA;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Receiver-side progress journal kept next to a partial file.
+ *
+ * Layout: [magic(4)][fileId(8)][fileSize(8)][chunkSize(4)][bitmap ...]
+ * Bit i of the bitmap (byte i/8, bit i%8) is set once chunk i has been
+ * written to the partial file, so a restarted receiver knows which chunks
+ * it already has.
+ */
+public class TransferJournal {
+
+    private static final int MAGIC = 0x4E564A31; // "NVJ1"
+    private static final int HEADER_LEN = 4 + 8 + 8 + 4;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final BitSet chunks;
+
+    private TransferJournal(File file, RandomAccessFile raf, BitSet chunks) {
+        this.file = file;
+        this.raf = raf;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Open the journal for a file identity. If an existing journal matches
+     * (same id, size and chunk size) its bitmap is loaded, otherwise the
+     * journal is reset.
+     */
+    public static TransferJournal open(File file, long fileId, long fileSize, int chunkSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        int totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        int bitmapLen = (totalChunks + 7) / 8;
+
+        if (raf.length() == HEADER_LEN + bitmapLen) {
+            raf.seek(0);
+            if (raf.readInt() == MAGIC && raf.readLong() == fileId && raf.readLong() == fileSize
+                    && raf.readInt() == chunkSize) {
+                byte[] bitmap = new byte[bitmapLen];
+                raf.readFully(bitmap);
+                return new TransferJournal(file, raf, BitSet.valueOf(bitmap));
+            }
+        }
+
+        // no journal, or it belongs to another file → start over
+        raf.setLength(0);
+        raf.writeInt(MAGIC);
+        raf.writeLong(fileId);
+        raf.writeLong(fileSize);
+        raf.writeInt(chunkSize);
+        raf.write(new byte[bitmapLen]);
+        return new TransferJournal(file, raf, new BitSet(totalChunks));
+    }
+
+    // File ids of the journals in folder: the partial files a sender may resume
+    public static List<Long> fileIds(File folder) {
+        List<Long> ids = new ArrayList<>();
+        File[] journals = folder.listFiles((dir, name) -> name.endsWith(".part.journal"));
+        if (journals == null)
+            return ids;
+
+        for (File journal : journals) {
+            try (RandomAccessFile raf = new RandomAccessFile(journal, "r")) {
+                if (raf.length() >= HEADER_LEN && raf.readInt() == MAGIC)
+                    ids.add(raf.readLong());
+            } catch (IOException e) {
+                // unreadable journal: its file is received from scratch
+            }
+        }
+        return ids;
+    }
+
+    // Record chunk as persisted (call after the chunk bytes are written)
+    public void mark(int chunk) throws IOException {
+        chunks.set(chunk);
+
+        int byteIndex = chunk >>> 3;
+        int bits = 0;
+        for (int i = 0; i < 8; i++) {
+            if (chunks.get((byteIndex << 3) + i))
+                bits |= 1 << i;
+        }
+
+        raf.seek(HEADER_LEN + byteIndex);
+        raf.write(bits);
+    }
+
+    public boolean has(int chunk) {
+        return chunks.get(chunk);
+    }
+
+    // Live view of received chunks
+    public BitSet getChunks() {
+        return chunks;
+    }
+
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            System.out.println("Journal close error: " + e.getMessage());
+        }
+    }
+
+    public void delete() {
+        close();
+        if (!file.delete() && file.exists())
+            System.out.println("Could not delete journal: " + file.getAbsolutePath());
+    }
+}
@@ -1,84 +1,348 @@
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Process-wide control endpoint on UDP 5001 for every Sender in the JVM.
+ * Senders register on construction and get a session id; a message for
+ * session 0 (or without one) applies to all of them.
+ *
+ * Accepts binary ControlProtocol frames and, for older bridges, the flat
+ * JSON events SET_WINDOW, SET_LOSS, SET_EMULATOR and GET_STATS (optional
+ * "session":N). Both are parsed in place on one reused buffer.
+ */
 public class WindowControlListener implements Runnable {
 
-    private final WindowManager windowManager;
-    private final Sender sender;
-    private boolean running = true;
+    public static final int CONTROL_PORT = 5001;
 
-    public WindowControlListener(WindowManager manager, Sender sender) {
-        this.windowManager = manager;
-        this.sender = sender;
+    // one registered Sender (immutable, published through the sessions array)
+    private static class Session {
+        final int id;
+        final Sender sender;
+
+        Session(int id, Sender sender) {
+            this.id = id;
+            this.sender = sender;
+        }
+    }
+
+    private static final AtomicInteger nextSessionId = new AtomicInteger(1);
+    private static volatile Session[] sessions = new Session[0]; // copy-on-write
+    private static WindowControlListener instance;
+
+    // legacy JSON keys
+    private static final byte[] EV_SET_WINDOW = ascii("\"event\":\"SET_WINDOW\"");
+    private static final byte[] EV_SET_LOSS = ascii("\"event\":\"SET_LOSS\"");
+    private static final byte[] EV_GET_STATS = ascii("\"event\":\"GET_STATS\"");
+    private static final byte[] EV_SET_EMULATOR = ascii("\"event\":\"SET_EMULATOR\"");
+    private static final byte[] DIR_REVERSE = ascii("\"direction\":\"reverse\"");
+    private static final byte[] DIR_BOTH = ascii("\"direction\":\"both\"");
+    private static final byte[] K_SESSION = ascii("\"session\":");
+    private static final byte[] K_SIZE = ascii("\"size\":");
+    private static final byte[] K_CHANCE = ascii("\"chance\":");
+    private static final byte[] K_SEED = ascii("\"seed\":");
+    private static final byte[][] EMULATOR_FIELDS = { ascii("\"loss\":"), ascii("\"burstEnter\":"),
+            ascii("\"burstExit\":"), ascii("\"burstLoss\":"), ascii("\"delay\":"), ascii("\"jitter\":"),
+            ascii("\"reorder\":"), ascii("\"duplicate\":"), ascii("\"corrupt\":"), ascii("\"bandwidth\":") };
+    private static final int[] EMULATOR_KEYS = { ControlProtocol.KEY_LINK_LOSS,
+            ControlProtocol.KEY_LINK_BURST_ENTER, ControlProtocol.KEY_LINK_BURST_EXIT,
+            ControlProtocol.KEY_LINK_BURST_LOSS, ControlProtocol.KEY_LINK_DELAY_MS,
+            ControlProtocol.KEY_LINK_JITTER_MS, ControlProtocol.KEY_LINK_REORDER,
+            ControlProtocol.KEY_LINK_DUPLICATE, ControlProtocol.KEY_LINK_CORRUPT,
+            ControlProtocol.KEY_LINK_BANDWIDTH };
+    // JSON units → protocol units (% → ppm, kbit/s → bit/s, ms stays ms)
+    private static final double[] EMULATOR_SCALE = { 1e4, 1e4, 1e4, 1e4, 1, 1, 1e4, 1e4, 1e4, 1e3 };
+
+    private volatile boolean running = true;
+    private DatagramSocket socket;
+
+    private WindowControlListener() {
+    }
+
+    // Add a Sender to the control plane (starts the listener on first use)
+    public static synchronized int register(Sender sender) {
+        int id = nextSessionId.getAndIncrement();
+
+        Session[] grown = Arrays.copyOf(sessions, sessions.length + 1);
+        grown[grown.length - 1] = new Session(id, sender);
+        sessions = grown;
+
+        if (instance == null) {
+            instance = new WindowControlListener();
+            Thread controlThread = new Thread(instance, "control-listener");
+            controlThread.setDaemon(true);
+            controlThread.start();
+        }
+        return id;
+    }
+
+    public static synchronized void unregister(Sender sender) {
+        Session[] current = sessions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].sender == sender) {
+                Session[] shrunk = new Session[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, i);
+                System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                sessions = shrunk;
+                return;
+            }
+        }
     }
 
     @Override
     public void run() {
 
-        try (DatagramSocket socket = new DatagramSocket(5001)) {
-            System.out.println("WindowControlListener running on UDP port 5001...");
+        try (DatagramSocket socket = new DatagramSocket(CONTROL_PORT)) {
+            this.socket = socket;
+            System.out.println("WindowControlListener running on UDP port " + CONTROL_PORT + "...");
 
-            byte[] buffer = new byte[256];
+            byte[] buffer = new byte[1024];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 
             while (running) {
-
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                packet.setLength(buffer.length);
                 socket.receive(packet);
 
-                String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-                System.out.println("Received control message: " + message);
+                int len = packet.getLength();
+                if (ControlProtocol.isFrame(buffer, len))
+                    handleFrame(buffer, len, packet);
+                else
+                    handleJson(buffer, len, packet);
+            }
+
+        } catch (Exception e) {
+            System.out.println("WindowControlListener error: " + e.getMessage());
+        }
+    }
 
-                // MANUAL PARSE (no org.json)
-                if (message.contains("\"event\":\"SET_WINDOW\"")) {
+    private void handleFrame(byte[] buf, int len, DatagramPacket packet) throws Exception {
+        if (!ControlProtocol.isValid(buf, len)) {
+            System.out.println("Unsupported control frame (version " + ControlProtocol.version(buf) + ", " + len
+                    + " bytes) → ignored");
+            return;
+        }
 
-                    try {
-                        int sizeIndex = message.indexOf("\"size\":") + 7;
-                        String number = "";
+        int session = ControlProtocol.sessionId(buf);
+        switch (ControlProtocol.opcode(buf)) {
+            case ControlProtocol.OP_SET:
+                int count = ControlProtocol.count(buf);
+                for (int i = 0; i < count; i++)
+                    apply(session, ControlProtocol.key(buf, i), ControlProtocol.value(buf, i));
+                break;
+            case ControlProtocol.OP_GET_STATS:
+                replyStats(packet);
+                break;
+            default:
+                System.out.println("Unknown control opcode " + ControlProtocol.opcode(buf) + " → ignored");
+        }
+    }
 
-                        while (sizeIndex < message.length()
-                                && Character.isDigit(message.charAt(sizeIndex))) {
-                            number += message.charAt(sizeIndex);
-                            sizeIndex++;
-                        }
+    private void handleJson(byte[] buf, int len, DatagramPacket packet) throws Exception {
+        double sessionValue = readNumber(buf, len, K_SESSION);
+        int session = Double.isNaN(sessionValue) ? 0 : (int) sessionValue;
+        double v;
 
-                        int newSize = Integer.parseInt(number);
+        if (indexOf(buf, len, EV_SET_WINDOW) >= 0) {
+            if (Double.isNaN(v = readNumber(buf, len, K_SIZE)))
+                System.out.println("Failed to parse window size");
+            else
+                apply(session, ControlProtocol.KEY_WINDOW, (long) v);
+        }
 
-                        System.out.println("UI → Java Window Size Updated to: " + newSize);
-                        windowManager.setWindowSize(newSize);
+        if (indexOf(buf, len, EV_SET_LOSS) >= 0) {
+            if (Double.isNaN(v = readNumber(buf, len, K_CHANCE)))
+                System.out.println("Failed to parse loss chance");
+            else
+                apply(session, ControlProtocol.KEY_LINK_LOSS, (long) (v * 1e4));
+        }
 
-                    } catch (Exception e) {
-                        System.out.println("Failed to parse window size from: " + message);
-                    }
-                }
+        // pull-based stats: reply with a METRICS snapshot to whoever asked
+        if (indexOf(buf, len, EV_GET_STATS) >= 0)
+            replyStats(packet);
 
-                if (message.contains("\"event\":\"SET_LOSS\"")) {
-                    try {
-                        int idx = message.indexOf("\"chance\":") + 9;
-                        String num = "";
+        /*
+         * {"event":"SET_EMULATOR","direction":"forward|reverse|both", ...}
+         * Probabilities in %, times in ms, bandwidth in kbit/s. Missing keys keep
+         * their current value.
+         */
+        if (indexOf(buf, len, EV_SET_EMULATOR) >= 0) {
+            if (!Double.isNaN(v = readNumber(buf, len, K_SEED)))
+                apply(session, ControlProtocol.KEY_EMU_SEED, (long) v);
 
-                        while (idx < message.length() && Character.isDigit(message.charAt(idx))) {
-                            num += message.charAt(idx);
-                            idx++;
-                        }
+            boolean both = indexOf(buf, len, DIR_BOTH) >= 0;
+            boolean reverse = both || indexOf(buf, len, DIR_REVERSE) >= 0;
+            boolean forward = both || !reverse;
 
-                        int chance = Integer.parseInt(num);
-                        System.out.println("UI → Java Packet Loss Updated to: " + chance + "%");
+            for (int f = 0; f < EMULATOR_FIELDS.length; f++) {
+                if (Double.isNaN(v = readNumber(buf, len, EMULATOR_FIELDS[f])))
+                    continue;
+                long value = Math.round(v * EMULATOR_SCALE[f]);
+                if (forward)
+                    apply(session, EMULATOR_KEYS[f], value);
+                if (reverse)
+                    apply(session, EMULATOR_KEYS[f] | ControlProtocol.REVERSE, value);
+            }
+        }
+    }
 
-                        sender.setLossChance(chance);
+    // Apply one setting to the addressed session(s)
+    private void apply(int session, int key, long value) {
+        if (key == ControlProtocol.KEY_TELEMETRY) {
+            Logger.setLevel((int) value);
+            System.out.println("Control → telemetry level " + Logger.getLevel());
+            return;
+        }
 
-                    } catch (Exception e) {
-                        System.out.println("Failed to parse loss chance from: " + message);
-                    }
-                }
+        boolean matched = false;
+        for (Session s : sessions) {
+            if (session == 0 || s.id == session) {
+                applyToSender(s.sender, key, value);
+                matched = true;
+            }
+        }
+        if (!matched)
+            System.out.println("Control message for unknown session " + session + " → ignored");
+    }
 
+    private void applyToSender(Sender sender, int key, long value) {
+        try {
+            switch (key) {
+                case ControlProtocol.KEY_WINDOW:
+                    sender.setWindowSize((int) value);
+                    return;
+                case ControlProtocol.KEY_PACING_MS:
+                    sender.setPacingDelayMs((int) value);
+                    return;
+                case ControlProtocol.KEY_RTO_MIN_MS:
+                    sender.getRttEstimator().setMinRtoMs(value);
+                    return;
+                case ControlProtocol.KEY_RTO_MAX_MS:
+                    sender.getRttEstimator().setMaxRtoMs(value);
+                    return;
+                case ControlProtocol.KEY_CHUNK_SIZE:
+                    sender.setChunkSize((int) value);
+                    return;
+                case ControlProtocol.KEY_EMU_SEED:
+                    sender.getNetworkEmulator().setSeed(value);
+                    return;
+                default:
+                    break;
             }
 
-        } catch (Exception e) {
-            System.out.println("WindowControlListener error: " + e.getMessage());
+            NetworkEmulator emulator = sender.getNetworkEmulator();
+            NetworkEmulator.Link link = ((key & ControlProtocol.REVERSE) != 0) ? emulator.reverse()
+                    : emulator.forward();
+            double p = value / ControlProtocol.PPM;
+
+            switch (key & ~ControlProtocol.REVERSE) {
+                case ControlProtocol.KEY_LINK_LOSS:
+                    link.setLoss(p);
+                    break;
+                case ControlProtocol.KEY_LINK_BURST_ENTER:
+                    link.setBurstLoss(p, link.getBurstExit(), link.getBurstLoss());
+                    break;
+                case ControlProtocol.KEY_LINK_BURST_EXIT:
+                    link.setBurstLoss(link.getBurstEnter(), p, link.getBurstLoss());
+                    break;
+                case ControlProtocol.KEY_LINK_BURST_LOSS:
+                    link.setBurstLoss(link.getBurstEnter(), link.getBurstExit(), p);
+                    break;
+                case ControlProtocol.KEY_LINK_DELAY_MS:
+                    link.setDelay((int) value, link.getJitterMs());
+                    break;
+                case ControlProtocol.KEY_LINK_JITTER_MS:
+                    link.setDelay(link.getDelayMs(), (int) value);
+                    break;
+                case ControlProtocol.KEY_LINK_REORDER:
+                    link.setReorder(p, link.getReorderGapMs());
+                    break;
+                case ControlProtocol.KEY_LINK_REORDER_GAP_MS:
+                    link.setReorder(link.getReorder(), (int) value);
+                    break;
+                case ControlProtocol.KEY_LINK_DUPLICATE:
+                    link.setDuplicate(p);
+                    break;
+                case ControlProtocol.KEY_LINK_CORRUPT:
+                    link.setCorrupt(p);
+                    break;
+                case ControlProtocol.KEY_LINK_BANDWIDTH:
+                    link.setBandwidth(value);
+                    break;
+                default:
+                    System.out.println("Unknown control key " + key + " → ignored");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Rejected control value " + value + " for key " + key + ": " + e.getMessage());
         }
     }
 
+    private void replyStats(DatagramPacket request) throws Exception {
+        byte[] stats = Metrics.snapshotJson().getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(stats, stats.length, request.getAddress(), request.getPort()));
+    }
+
+    // Position of needle in buf[0..len), -1 if absent
+    private static int indexOf(byte[] buf, int len, byte[] needle) {
+        outer: for (int i = 0; i + needle.length <= len; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buf[i + j] != needle[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // Number after "key": (needle includes the colon), NaN if absent or not a number
+    private static double readNumber(byte[] buf, int len, byte[] keyNeedle) {
+        int i = indexOf(buf, len, keyNeedle);
+        if (i < 0)
+            return Double.NaN;
+        i += keyNeedle.length;
+
+        while (i < len && buf[i] == ' ')
+            i++;
+
+        boolean negative = i < len && buf[i] == '-';
+        if (negative)
+            i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < len; i++) {
+            byte c = buf[i];
+            if (c >= '0' && c <= '9') {
+                if (digits == 18 && !fraction)
+                    return Double.NaN; // out of range for a control value
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (fraction)
+                        fractionDigits++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0)
+            return Double.NaN;
+
+        double v = mantissa;
+        for (int k = 0; k < fractionDigits; k++)
+            v /= 10;
+        return negative ? -v : v;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
     public void stop() {
         running = false;
     }
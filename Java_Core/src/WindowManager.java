@@ -3,15 +3,29 @@ import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Sliding window state. Owned by the sender's send loop: ACKs reach it
+ * through an AckQueue drained by that thread, so no locking is needed.
+ * Only the window size (control listener) and the receiver's advertised
+ * window (ACK listener) are changed from other threads.
+ *
+ * The usable window is min(windowSize, receiveWindow) packets from the
+ * first un-ACKed seq.
+ */
 public class WindowManager {
 
-    private int windowSize; // maximum packets allowed in flight
-    private int windowStart; // first un-ACKed sequence
+    private volatile int windowSize; // maximum packets allowed in flight
+    private volatile int windowStart; // first un-ACKed sequence
+    // advertised by the receiver (packets); until its first ACK only the metadata handshake may go out
+    private volatile int receiveWindow = 1;
     private int nextSeqToSend; // next seq available for transmission
 
     // Maps to store packets and their send timestamps
     private final Map<Integer, Object> unackedPackets;
     private final Map<Integer, Long> sendTimestamps;
+    private final Map<Integer, Long> firstSendNanos; // RTT samples, dropped on retransmit (Karn)
+    private final RttEstimator rttEstimator = new RttEstimator();
+    private long lastRetransmitNanos = 0;
 
     public WindowManager(int windowSize, int initialSeqStart) {
         this.windowSize = windowSize;
@@ -20,38 +34,78 @@ public class WindowManager {
 
         this.unackedPackets = new HashMap<>();
         this.sendTimestamps = new HashMap<>();
+        this.firstSendNanos = new HashMap<>();
     }
 
     /**
      * Check if sender is allowed to send a packet with sequence number seq.
-     * Allowed iff seq <= windowStart + windowSize - 1.
+     * Allowed iff seq <= windowStart + min(windowSize, receiveWindow) - 1.
      */
-    public synchronized boolean canSend(int seq) {
-        int windowEnd = windowStart + windowSize - 1;
-        return seq <= windowEnd;
+    public boolean canSend(int seq) {
+        return seq <= getWindowEnd();
     }
 
     // Called immediately after sender transmits a packet.
-    public synchronized void recordSent(int seq, Object packetObj) {
+    public void recordSent(int seq, Object packetObj) {
+        recordSent(seq, packetObj, System.nanoTime());
+    }
+
+    // sentNanos = send time on the RTT clock (a trace timestamp when replaying)
+    public void recordSent(int seq, Object packetObj, long sentNanos) {
+        // already covered by a cumulative ACK (e.g. resumed transfer)
+        if (seq < windowStart)
+            return;
+
         unackedPackets.put(seq, packetObj);
         sendTimestamps.put(seq, System.currentTimeMillis());
+        firstSendNanos.put(seq, sentNanos);
 
         if (seq >= nextSeqToSend) {
             nextSeqToSend = seq + 1;
         }
+
+        Metrics.windowOccupancy(unackedPackets.size());
     }
 
     /**
      * Called when ACK for a given sequence number is received.
      * Slides the window forward while packets are acknowledged in order.
      */
-    public synchronized void recordAck(int ackSeq) {
+    public void recordAck(int ackSeq) {
+        recordAck(ackSeq, System.nanoTime());
+    }
+
+    // arrivalNanos = when the ACK reached the listener, for the RTT sample
+    public void recordAck(int ackSeq, long arrivalNanos) {
         int oldStart = windowStart;
 
+        // RTT: only the packet the ACK names, only if it was never retransmitted (Karn),
+        // and only if it was sent after the last retransmission - otherwise the ACK
+        // may have waited for a hole to be filled and the sample is mostly that wait
+        Long sentAt = firstSendNanos.get(ackSeq);
+        if (sentAt != null && sentAt > lastRetransmitNanos && unackedPackets.containsKey(ackSeq)) {
+            Metrics.rttSample(arrivalNanos - sentAt);
+            rttEstimator.sample(arrivalNanos - sentAt);
+        }
+
         // Remove ALL packets ≤ ackSeq (cumulative ACK)
-        for (int seq = windowStart; seq <= ackSeq; seq++) {
-            unackedPackets.remove(seq);
-            sendTimestamps.remove(seq);
+        if (ackSeq - windowStart > unackedPackets.size()) {
+            // big jump (e.g. resumed transfer) → walk the map, not the range
+            unackedPackets.keySet().removeIf(seq -> seq <= ackSeq);
+            sendTimestamps.keySet().removeIf(seq -> seq <= ackSeq);
+            firstSendNanos.keySet().removeIf(seq -> seq <= ackSeq);
+        } else {
+            for (int seq = windowStart; seq <= ackSeq; seq++) {
+                unackedPackets.remove(seq);
+                sendTimestamps.remove(seq);
+                firstSendNanos.remove(seq);
+            }
+        }
+
+        // Everything ≤ ackSeq is acknowledged, even chunks we never had to send
+        if (ackSeq >= windowStart) {
+            windowStart = ackSeq + 1;
+            nextSeqToSend = Math.max(nextSeqToSend, windowStart);
         }
 
         // Slide window forward over continuous ACKs
@@ -59,8 +113,11 @@ public class WindowManager {
             windowStart++;
         }
 
+        Metrics.windowOccupancy(unackedPackets.size());
+
         // Log only if window actually moved
         if (oldStart != windowStart) {
+            rttEstimator.resetBackoff();
             Logger.logWindowMove(oldStart, windowStart, getWindowEnd());
         }
     }
@@ -69,48 +126,78 @@ public class WindowManager {
      * Return all unacked sequence numbers.
      * Sender uses this to detect timeouts.
      */
-    public synchronized List<Integer> getUnackedSeqs() {
+    public List<Integer> getUnackedSeqs() {
         return new ArrayList<>(unackedPackets.keySet());
     }
 
+    public boolean hasUnacked() {
+        return !unackedPackets.isEmpty();
+    }
+
     /**
      * Retrieve stored packet for retransmission.
      */
-    public synchronized Object getPacket(int seq) {
+    public Object getPacket(int seq) {
         return unackedPackets.get(seq);
     }
 
     /**
      * Get last time a packet was sent.
      */
-    public synchronized Long getLastSendTime(int seq) {
+    public Long getLastSendTime(int seq) {
         return sendTimestamps.get(seq);
     }
 
     /**
      * Update timestamp after retransmission.
      */
-    public synchronized void updateSendTimestamp(int seq) {
+    public void updateSendTimestamp(int seq) {
+        updateSendTimestamp(seq, System.nanoTime());
+    }
+
+    public void updateSendTimestamp(int seq, long sentNanos) {
         sendTimestamps.put(seq, System.currentTimeMillis());
+        firstSendNanos.remove(seq); // ACK would be ambiguous now
+        lastRetransmitNanos = sentNanos;
     }
 
-    public synchronized int getWindowStart() {
+    public int getWindowStart() {
         return windowStart;
     }
 
-    public synchronized int getWindowEnd() {
-        return windowStart + windowSize - 1;
+    public int getWindowEnd() {
+        return windowStart + getEffectiveWindow() - 1;
+    }
+
+    // Packets allowed in flight: the configured window, capped by the receiver's
+    public int getEffectiveWindow() {
+        return Math.min(windowSize, receiveWindow);
+    }
+
+    // Receive window from the latest ACK (0 = receiver buffer full, probe until it opens)
+    public void setReceiveWindow(int packets) {
+        this.receiveWindow = Math.max(0, packets);
+    }
+
+    public int getReceiveWindow() {
+        return receiveWindow;
     }
 
     /** ★ Dynamic window size change (UI → Node → Java) */
-    public synchronized void setWindowSize(int newSize) {
+    public void setWindowSize(int newSize) {
         System.out.println("Window Size Changed: " + windowSize + " → " + newSize);
         this.windowSize = newSize;
 
-        Logger.logWindowMove(windowStart, windowStart, getWindowEnd());
+        int start = windowStart;
+        Logger.logWindowMove(start, start, start + newSize - 1);
+    }
+
+    // RTO for the retransmission timers (fed by the RTT samples above)
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
     }
 
-    public synchronized int getNextSeqToSend() {
+    public int getNextSeqToSend() {
         return nextSeqToSend;
     }
 
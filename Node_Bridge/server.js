@@ -29,6 +29,27 @@ app.use('/received', express.static(RECEIVED_DIR));
 
 console.log(` Serving received files at: http://localhost:3000/received/<filename>`);
 
+// Files still streaming in: filename → bytes of "<filename>.part" that are final (from FILE_PARTIAL)
+const partials = new Map();
+
+// Growing file: only the prefix Java reported (the rest of the .part file may still be holes)
+app.get('/partial/:filename', (req, res) => {
+    const filename = path.basename(req.params.filename);
+    const available = partials.get(filename);
+    const partPath = path.join(RECEIVED_DIR, filename + '.part');
+
+    if (!available || !fs.existsSync(partPath)) {
+        return res.sendStatus(404);
+    }
+
+    res.type(path.extname(filename) || 'application/octet-stream');
+    res.set('Content-Length', String(available));
+    res.set('Cache-Control', 'no-store');
+    fs.createReadStream(partPath, { start: 0, end: available - 1 })
+        .on('error', () => res.destroy())
+        .pipe(res);
+});
+
 // 3. UDP Listener for Java Logger
 const udpSocket = dgram.createSocket('udp4');
 
@@ -58,8 +79,25 @@ udpSocket.on('message', (msg, rinfo) => {
             });
         }
 
+        // --- Metrics snapshots (periodic, or the reply to get_stats) ---
+        if (parsed.event === "METRICS") {
+            io.emit("metrics", parsed);
+        }
+
+        // --- FILE PARTIAL (readable prefix of a file still streaming in) ---
+        if (parsed.event === "FILE_PARTIAL") {
+            partials.set(parsed.filename, parsed.end);
+            io.emit("file_partial", {
+                filename: parsed.filename,
+                available: parsed.end,
+                size: parsed.size,
+                url: `/partial/${encodeURIComponent(parsed.filename)}`
+            });
+        }
+
         // --- FILE COMPLETE  ---
         if (parsed.event === "FILE_COMPLETE") {
+            partials.delete(parsed.filename);
             io.emit("file_complete", {
                 filename: parsed.filename,
                 size: parsed.size
@@ -77,28 +115,112 @@ udpSocket.bind(5000, () => {
     console.log(' UDP Bridge listening for Java logs on udp://localhost:5000');
 });
 
-// 4. Start WebSocket for React UI
+// 4. Binary control frames for Java (see ControlProtocol.java)
+// [ "NV" ][version 1][opcode][sessionId u32][count] then count x [key u8][value i64], big-endian.
+// sessionId 0 = every Sender in the Java process.
+const CONTROL = {
+    OP_SET: 1,
+    OP_GET_STATS: 2,
+    WINDOW: 1,
+    PACING_MS: 2,
+    RTO_MIN_MS: 3,
+    RTO_MAX_MS: 4,
+    CHUNK_SIZE: 5,
+    TELEMETRY: 6,
+    EMU_SEED: 16,
+    REVERSE: 0x40
+};
+
+// Emulator fields from the UI (%, ms, kbit/s) → link key + scale to protocol units (ppm, ms, bit/s)
+const LINK_KEYS = {
+    loss: [32, 1e4],
+    burstEnter: [33, 1e4],
+    burstExit: [34, 1e4],
+    burstLoss: [35, 1e4],
+    delay: [36, 1],
+    jitter: [37, 1],
+    reorder: [38, 1e4],
+    reorderGap: [39, 1],
+    duplicate: [40, 1e4],
+    corrupt: [41, 1e4],
+    bandwidth: [42, 1e3]
+};
+
+function controlFrame(opcode, session, entries) {
+    const buf = Buffer.alloc(9 + entries.length * 9);
+    buf.write("NV", 0, "ascii");
+    buf.writeUInt8(1, 2);
+    buf.writeUInt8(opcode, 3);
+    buf.writeUInt32BE(session || 0, 4);
+    buf.writeUInt8(entries.length, 8);
+    entries.forEach(([key, value], i) => {
+        buf.writeUInt8(key, 9 + i * 9);
+        buf.writeBigInt64BE(BigInt(Math.round(value)), 10 + i * 9);
+    });
+    return buf;
+}
+
+function sendControl(opcode, session, entries) {
+    const msg = controlFrame(opcode, session, entries);
+    udpSocket.send(msg, 0, msg.length, 5001, "localhost");
+}
+
+// 5. Start WebSocket for React UI
 io.on("connection", (socket) => {
     console.log("React Dashboard connected:", socket.id);
 
     socket.on("set_window_size", (data) => {
         console.log("UI → Set window size:", data.size);
 
-        const msg = Buffer.from(
-            JSON.stringify({ event: "SET_WINDOW", size: data.size })
-        );
-
-        udpSocket.send(msg, 0, msg.length, 5001, "localhost");
+        sendControl(CONTROL.OP_SET, data.session, [[CONTROL.WINDOW, data.size]]);
     });
 
     socket.on("set_loss_chance", (data) => {
         console.log("UI → Set Packet Loss:", data.chance + "%");
 
-        const msg = Buffer.from(
-            JSON.stringify({ event: "SET_LOSS", chance: data.chance })
-        );
+        sendControl(CONTROL.OP_SET, data.session, [[LINK_KEYS.loss[0], data.chance * LINK_KEYS.loss[1]]]);
+    });
+
+    // Pull a metrics snapshot; Java replies to this socket (→ "metrics" event)
+    socket.on("get_stats", () => {
+        sendControl(CONTROL.OP_GET_STATS, 0, []);
+    });
+
+    // Network emulator settings: { session, direction, loss, burstEnter, burstExit, burstLoss,
+    // delay, jitter, reorder, reorderGap, duplicate, corrupt, bandwidth, seed }
+    socket.on("set_emulator", (data) => {
+        console.log("UI → Set Emulator:", data);
+
+        const direction = data.direction || "forward";
+        const entries = [];
+        if (data.seed !== undefined) entries.push([CONTROL.EMU_SEED, data.seed]);
+
+        for (const [field, [key, scale]] of Object.entries(LINK_KEYS)) {
+            if (data[field] === undefined) continue;
+            if (direction !== "reverse") entries.push([key, data[field] * scale]);
+            if (direction !== "forward") entries.push([key | CONTROL.REVERSE, data[field] * scale]);
+        }
+
+        sendControl(CONTROL.OP_SET, data.session, entries);
+    });
 
-        udpSocket.send(msg, 0, msg.length, 5001, "localhost");
+    // Sender tuning: { session, window, pacingMs, rtoMinMs, rtoMaxMs, chunkSize, telemetry (0 off, 1 summary, 2 packets) }
+    socket.on("set_control", (data) => {
+        console.log("UI → Set Control:", data);
+
+        const fields = {
+            window: CONTROL.WINDOW,
+            pacingMs: CONTROL.PACING_MS,
+            rtoMinMs: CONTROL.RTO_MIN_MS,
+            rtoMaxMs: CONTROL.RTO_MAX_MS,
+            chunkSize: CONTROL.CHUNK_SIZE,
+            telemetry: CONTROL.TELEMETRY
+        };
+        const entries = Object.entries(fields)
+            .filter(([field]) => data[field] !== undefined)
+            .map(([field, key]) => [key, data[field]]);
+
+        sendControl(CONTROL.OP_SET, data.session, entries);
     });
 
 });